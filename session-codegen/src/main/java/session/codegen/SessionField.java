@@ -0,0 +1,19 @@
+package session.codegen;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of a {@link SessionType} to be serialized.
+ * Fields are written in the order of their index, not in declaration order. To stay compatible with sessions issued by
+ * an older version, never reuse or reorder indexes, and only add new fields with a higher index: values missing at the
+ * end of an older session are read as null (or 0 / false for primitives).
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface SessionField {
+
+    int value();
+}
@@ -0,0 +1,304 @@
+package session.codegen;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates a reflection-free {@code SessionSerializer<T, String>} for every class annotated with {@link SessionType}.
+ * <p>
+ * The fields are written in index order, each one either as {@code !} (null), as {@code <length>:<chars>} (String),
+ * or as {@code <value>;} (numbers and booleans). Strings are length-prefixed, so they need no escaping, and decoding
+ * walks the payload once with a cursor instead of splitting it.
+ * <p>
+ * The serializer is generated into the package of the class, as {@code <Type>SessionSerializer}; for a nested class, the names of
+ * the enclosing classes are prepended, e.g. {@code Outer_InnerSessionSerializer}. Nested classes must be static and not private.
+ */
+@SupportedAnnotationTypes("session.codegen.SessionType")
+public class SessionSerializerProcessor extends AbstractProcessor {
+
+    private static final String SUFFIX = "SessionSerializer";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(SessionType.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@SessionType is only supported on classes");
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            if (!isReachable(type)) {
+                error(element, "@SessionType is only supported on top-level or static nested classes which are not private");
+                continue;
+            }
+            List<Field> fields = collectFields(type);
+            if (fields != null && hasConstructor(type, fields)) {
+                write(type, fields);
+            }
+        }
+        return true;
+    }
+
+    private static boolean isReachable(TypeElement type) {
+        for (Element element = type; element.getKind().isClass() || element.getKind().isInterface(); element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE))
+                return false;
+            if (element.getEnclosingElement().getKind() != ElementKind.PACKAGE && !element.getModifiers().contains(Modifier.STATIC))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The simple names of the type and of its enclosing types, joined with underscores.
+     */
+    private static String flatName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+        for (Element enclosing = type.getEnclosingElement(); enclosing.getKind() != ElementKind.PACKAGE; enclosing = enclosing.getEnclosingElement()) {
+            name = enclosing.getSimpleName() + "_" + name;
+        }
+        return name;
+    }
+
+    private List<Field> collectFields(TypeElement type) {
+        List<Field> fields = new ArrayList<>();
+        for (VariableElement variable : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            SessionField annotation = variable.getAnnotation(SessionField.class);
+            if (annotation == null)
+                continue;
+            Kind kind = Kind.of(variable.asType().toString());
+            if (kind == null) {
+                error(variable, "Unsupported session field type: " + variable.asType());
+                return null;
+            }
+            String accessor = accessor(type, variable);
+            if (accessor == null) {
+                error(variable, "Session field needs a getter or must not be private");
+                return null;
+            }
+            fields.add(new Field(annotation.value(), variable.getSimpleName().toString(), variable.asType().toString(), kind, accessor));
+        }
+        fields.sort(Comparator.comparingInt(f -> f.index));
+        for (int i = 1; i < fields.size(); i++) {
+            if (fields.get(i).index == fields.get(i - 1).index) {
+                error(type, "Duplicate @SessionField index " + fields.get(i).index);
+                return null;
+            }
+        }
+        return fields;
+    }
+
+    private String accessor(TypeElement type, VariableElement variable) {
+        String name = variable.getSimpleName().toString();
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            String methodName = method.getSimpleName().toString();
+            if (method.getParameters().isEmpty()
+                && !method.getModifiers().contains(Modifier.PRIVATE)
+                && (methodName.equals("get" + capitalized) || methodName.equals("is" + capitalized)))
+                return methodName + "()";
+        }
+        return variable.getModifiers().contains(Modifier.PRIVATE) ? null : name;
+    }
+
+    private boolean hasConstructor(TypeElement type, List<Field> fields) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            List<? extends VariableElement> parameters = constructor.getParameters();
+            if (constructor.getModifiers().contains(Modifier.PRIVATE) || parameters.size() != fields.size())
+                continue;
+            boolean matches = true;
+            for (int i = 0; i < parameters.size(); i++) {
+                matches &= parameters.get(i).asType().toString().equals(fields.get(i).type);
+            }
+            if (matches)
+                return true;
+        }
+        error(type, "@SessionType needs a constructor taking the @SessionField fields ordered by index");
+        return false;
+    }
+
+    private void write(TypeElement type, List<Field> fields) {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String typeName = type.getQualifiedName().toString();
+        String className = flatName(type) + SUFFIX;
+
+        StringBuilder src = new StringBuilder();
+        if (!packageName.isEmpty())
+            src.append("package ").append(packageName).append(";\n\n");
+        src.append("// Generated by ").append(SessionSerializerProcessor.class.getName()).append(", do not edit.\n");
+        src.append("public final class ").append(className)
+            .append(" implements com.softwaremill.session.SessionSerializer<").append(typeName).append(", String> {\n\n");
+        src.append("    public static final ").append(className).append(" INSTANCE = new ").append(className).append("();\n\n");
+        src.append("    private static final char NULL = '!';\n\n");
+
+        src.append("    @Override\n");
+        src.append("    public String serialize(").append(typeName).append(" session) {\n");
+        src.append("        StringBuilder out = new StringBuilder(").append(16 * fields.size()).append(");\n");
+        for (Field field : fields) {
+            field.kind.writeSerialize(src, "session." + field.accessor);
+        }
+        src.append("        return out.toString();\n");
+        src.append("    }\n\n");
+
+        src.append("    @Override\n");
+        src.append("    public scala.util.Try<").append(typeName).append("> deserialize(String in) {\n");
+        src.append("        try {\n");
+        src.append("            int pos = 0;\n");
+        src.append("            int end;\n");
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            src.append("            // ").append(field.index).append(": ").append(field.name).append("\n");
+            field.kind.writeDeserialize(src, field.type, "f" + i);
+        }
+        src.append("            return new scala.util.Success<>(new ").append(typeName).append("(");
+        for (int i = 0; i < fields.size(); i++) {
+            src.append(i == 0 ? "" : ", ").append("f").append(i);
+        }
+        src.append("));\n");
+        src.append("        } catch (RuntimeException e) {\n");
+        src.append("            return new scala.util.Failure<>(e);\n");
+        src.append("        }\n");
+        src.append("    }\n\n");
+
+        src.append("    private static int find(String in, int from, char c) {\n");
+        src.append("        int at = in.indexOf(c, from);\n");
+        src.append("        if (at < 0)\n");
+        src.append("            throw new IllegalArgumentException(\"Truncated session at \" + from);\n");
+        src.append("        return at;\n");
+        src.append("    }\n\n");
+        src.append("    private static long parseLong(String in, int from, int to) {\n");
+        src.append("        boolean negative = in.charAt(from) == '-';\n");
+        src.append("        int i = negative ? from + 1 : from;\n");
+        src.append("        if (i == to)\n");
+        src.append("            throw new NumberFormatException(\"Empty number at \" + from);\n");
+        src.append("        long value = 0L;\n");
+        src.append("        for (; i < to; i++) {\n");
+        src.append("            int digit = in.charAt(i) - '0';\n");
+        src.append("            if (digit < 0 || digit > 9)\n");
+        src.append("                throw new NumberFormatException(\"Not a digit at \" + i);\n");
+        src.append("            value = value * 10 - digit;\n");
+        src.append("        }\n");
+        src.append("        return negative ? value : -value;\n");
+        src.append("    }\n");
+        src.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter()) {
+            writer.write(src.toString());
+        } catch (IOException e) {
+            error(type, "Could not write " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static final class Field {
+
+        private final int index;
+        private final String name;
+        private final String type;
+        private final Kind kind;
+        private final String accessor;
+
+        Field(int index, String name, String type, Kind kind, String accessor) {
+            this.index = index;
+            this.name = name;
+            this.type = type;
+            this.kind = kind;
+            this.accessor = accessor;
+        }
+    }
+
+    private enum Kind {
+        STRING(false, null),
+        INT(true, "(int) parseLong(in, pos, end)"),
+        BOXED_INT(false, "(int) parseLong(in, pos, end)"),
+        LONG(true, "parseLong(in, pos, end)"),
+        BOXED_LONG(false, "parseLong(in, pos, end)"),
+        BOOLEAN(true, "in.charAt(pos) == 't'"),
+        BOXED_BOOLEAN(false, "in.charAt(pos) == 't'"),
+        DOUBLE(true, "Double.parseDouble(in.substring(pos, end))"),
+        BOXED_DOUBLE(false, "Double.parseDouble(in.substring(pos, end))");
+
+        private final boolean primitive;
+        private final String parse;
+
+        Kind(boolean primitive, String parse) {
+            this.primitive = primitive;
+            this.parse = parse;
+        }
+
+        static Kind of(String type) {
+            switch (type) {
+                case "java.lang.String": return STRING;
+                case "int": return INT;
+                case "java.lang.Integer": return BOXED_INT;
+                case "long": return LONG;
+                case "java.lang.Long": return BOXED_LONG;
+                case "boolean": return BOOLEAN;
+                case "java.lang.Boolean": return BOXED_BOOLEAN;
+                case "double": return DOUBLE;
+                case "java.lang.Double": return BOXED_DOUBLE;
+                default: return null;
+            }
+        }
+
+        void writeSerialize(StringBuilder src, String value) {
+            String indent = "        ";
+            if (!primitive) {
+                src.append(indent).append("if (").append(value).append(" == null)\n");
+                src.append(indent).append("    out.append(NULL);\n");
+                src.append(indent).append("else\n");
+                indent += "    ";
+            }
+            if (this == STRING)
+                src.append(indent).append("out.append(").append(value).append(".length()).append(':').append(").append(value).append(");\n");
+            else if (this == BOOLEAN || this == BOXED_BOOLEAN)
+                src.append(indent).append("out.append(").append(value).append(" ? \"t;\" : \"f;\");\n");
+            else
+                src.append(indent).append("out.append(").append(value).append(").append(';');\n");
+        }
+
+        void writeDeserialize(StringBuilder src, String type, String variable) {
+            String defaultValue = !primitive ? "null" : this == BOOLEAN ? "false" : "0";
+            src.append("            ").append(type).append(" ").append(variable).append(" = ").append(defaultValue).append(";\n");
+            src.append("            if (pos < in.length()) {\n");
+            src.append("                if (in.charAt(pos) == NULL) {\n");
+            src.append("                    pos++;\n");
+            src.append("                } else {\n");
+            if (this == STRING) {
+                src.append("                    end = find(in, pos, ':');\n");
+                src.append("                    pos = end + 1 + (int) parseLong(in, pos, end);\n");
+                src.append("                    ").append(variable).append(" = in.substring(end + 1, pos);\n");
+            } else {
+                src.append("                    end = find(in, pos, ';');\n");
+                src.append("                    ").append(variable).append(" = ").append(parse).append(";\n");
+                src.append("                    pos = end + 1;\n");
+            }
+            src.append("                }\n");
+            src.append("            }\n");
+        }
+    }
+}
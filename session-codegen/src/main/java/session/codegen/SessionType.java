@@ -0,0 +1,16 @@
+package session.codegen;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a session type, for which a SessionSerializer named {@code <TypeName>SessionSerializer} is generated at compile time.
+ * The fields to serialize are marked with {@link SessionField}, and the type needs a constructor taking exactly those fields,
+ * ordered by their index.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface SessionType {
+}
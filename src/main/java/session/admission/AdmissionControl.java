@@ -0,0 +1,187 @@
+package session.admission;
+
+import akka.http.javadsl.model.HttpHeader;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.headers.RemoteAddress;
+import akka.http.javadsl.model.headers.XForwardedFor;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Limits the rate of requests per client IP with a token bucket, before the inner route does any session work.
+ * <p>
+ * Each bucket is a single AtomicLong, updated with a compare-and-set (the GCRA form of a token bucket): it holds the time at which the
+ * bucket would be full again. A request is admitted if that time is at most the burst tolerance ahead of now, and then moves it one
+ * emission interval further. No locks are taken, and rejected requests are answered with a prebuilt 429 response.
+ * <p>
+ * The buckets are kept in a map bounded by maxClients. When it grows beyond that, buckets which are full again are evicted first,
+ * which loses nothing, as a full bucket behaves like a new one. Only if that is not enough, other buckets are evicted as well, down to
+ * 90% of maxClients.
+ * <p>
+ * The client is the address of the connection (the Remote-Address header the server adds, so akka.http.server.remote-address-header has
+ * to be enabled), and never a header the client sends: a client could send a new X-Forwarded-For value with every request, and so
+ * never be limited, and fill the map until the buckets of other clients are evicted. Only if the connection comes from one of the
+ * trusted proxies, the address the proxy appended last to X-Forwarded-For is used instead. IPv6 clients are limited per /64 prefix,
+ * as a single host usually has a whole /64 to pick addresses from.
+ */
+public class AdmissionControl extends AllDirectives {
+
+    private static final HttpResponse TOO_MANY_REQUESTS = HttpResponse.create()
+        .withStatus(StatusCodes.TOO_MANY_REQUESTS)
+        .addHeader(RawHeader.create("Retry-After", "1"))
+        .withEntity("Too many requests");
+
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final int maxClients;
+    private final Set<String> trustedProxies;
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param permitsPerSecond the sustained rate a single client is allowed
+     * @param burst            how many requests a client may send at once, after being idle
+     * @param maxClients       how many client buckets are kept
+     */
+    public AdmissionControl(double permitsPerSecond, int burst, int maxClients) {
+        this(permitsPerSecond, burst, maxClients, Collections.emptySet());
+    }
+
+    /**
+     * @param trustedProxies the addresses of the reverse proxies whose X-Forwarded-For header is trusted
+     */
+    public AdmissionControl(double permitsPerSecond, int burst, int maxClients, Set<String> trustedProxies) {
+        this.emissionIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+        this.maxClients = maxClients;
+        this.trustedProxies = trustedProxies;
+    }
+
+    /**
+     * Runs the inner route only if the client's bucket has a token left, and completes with 429 otherwise.
+     */
+    public Route admit(Supplier<Route> inner) {
+        return admit(request -> true, inner);
+    }
+
+    /**
+     * Like {@link #admit(Supplier)}, but only requests matching the predicate take a token; other requests pass through.
+     */
+    public Route admit(Predicate<HttpRequest> applies, Supplier<Route> inner) {
+        return
+            extractRequest(request -> {
+                    if (!applies.test(request))
+                        return inner.get();
+                    if (tryAcquire(client(request)))
+                        return inner.get();
+                    return complete(TOO_MANY_REQUESTS);
+                }
+            );
+    }
+
+    /**
+     * Takes a token from the client's bucket, and returns false if there is none left.
+     */
+    public boolean tryAcquire(String client) {
+        AtomicLong bucket = buckets.get(client);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(client, key -> new AtomicLong(Long.MIN_VALUE));
+            if (buckets.size() > maxClients)
+                evict();
+        }
+        long now = System.nanoTime();
+        while (true) {
+            long fullAt = bucket.get();
+            long start = fullAt == Long.MIN_VALUE || fullAt - now < 0 ? now : fullAt;
+            if (start - now > burstToleranceNanos) {
+                rejected.increment();
+                return false;
+            }
+            if (bucket.compareAndSet(fullAt, start + emissionIntervalNanos)) {
+                admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    public long admittedCount() {
+        return admitted.sum();
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * The bucket key of the request: the connection address, or the address appended by a trusted proxy.
+     */
+    private String client(HttpRequest request) {
+        Optional<InetAddress> connection = Optional.empty();
+        Optional<InetAddress> forwarded = Optional.empty();
+        for (HttpHeader header : request.getHeaders()) {
+            // the server appends its Remote-Address header, so the last one wins
+            if (header instanceof RemoteAddress) {
+                connection = ((RemoteAddress) header).address().getAddress();
+            } else if (header instanceof XForwardedFor) {
+                for (akka.http.javadsl.model.RemoteAddress address : ((XForwardedFor) header).getAddresses()) {
+                    forwarded = address.getAddress();
+                }
+            }
+        }
+        if (!connection.isPresent())
+            return "unknown";
+        if (forwarded.isPresent() && trustedProxies.contains(connection.get().getHostAddress()))
+            return key(forwarded.get());
+        return key(connection.get());
+    }
+
+    private static String key(InetAddress address) {
+        if (address instanceof Inet6Address) {
+            byte[] bytes = address.getAddress();
+            StringBuilder prefix = new StringBuilder(20);
+            for (int i = 0; i < 8; i += 2) {
+                prefix.append(Integer.toHexString((bytes[i] & 0xff) << 8 | (bytes[i + 1] & 0xff))).append(':');
+            }
+            return prefix.append(":/64").toString();
+        }
+        return address.getHostAddress();
+    }
+
+    private void evict() {
+        if (!evicting.compareAndSet(false, true))
+            return;
+        try {
+            long now = System.nanoTime();
+            buckets.values().removeIf(bucket -> bucket.get() == Long.MIN_VALUE || bucket.get() - now <= 0);
+            // evict down to 90% of the bound, so that the next new clients do not trigger another sweep right away
+            int target = maxClients - maxClients / 10;
+            Iterator<AtomicLong> remaining = buckets.values().iterator();
+            while (buckets.size() > target && remaining.hasNext()) {
+                remaining.next();
+                remaining.remove();
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+}
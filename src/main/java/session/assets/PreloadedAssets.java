@@ -0,0 +1,214 @@
+package session.assets;
+
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpCharsets;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.ContentEncoding;
+import akka.http.javadsl.model.headers.ETag;
+import akka.http.javadsl.model.headers.EntityTag;
+import akka.http.javadsl.model.headers.HttpEncodings;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.PathMatchers;
+import akka.http.javadsl.server.Route;
+import akka.util.ByteString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves a fixed set of classpath resources from memory.
+ * Every resource is read once at startup, gzipped once and given a strong ETag, so that a request for it only picks one of the
+ * prebuilt responses (identity, gzip or 304) instead of going to the classpath. The gzip response has a tag of its own (the tag of the
+ * identity response with a -gzip suffix), as a strong ETag must differ between encodings. Unknown names are rejected, so a
+ * getFromResourceDirectory route can still follow as a fallback.
+ */
+public class PreloadedAssets extends AllDirectives {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PreloadedAssets.class);
+
+    private final Map<String, Asset> assets = new HashMap<>();
+
+    public PreloadedAssets(String... resourceNames) {
+        for (String name : resourceNames) {
+            assets.put(name, load(name));
+        }
+    }
+
+    /**
+     * Completes GET requests for a preloaded asset whose name is the single remaining path segment.
+     */
+    public Route route() {
+        return
+            get(() ->
+                path(PathMatchers.segment(), name -> {
+                        Asset asset = assets.get(name);
+                        if (asset == null)
+                            return reject();
+                        return optionalHeaderValueByName("If-None-Match", ifNoneMatch ->
+                            optionalHeaderValueByName("Accept-Encoding", acceptEncoding ->
+                                complete(asset.select(ifNoneMatch, acceptEncoding))
+                            )
+                        );
+                    }
+                )
+            );
+    }
+
+    private static Asset load(String name) {
+        byte[] identity = readResource(name);
+        byte[] gzipped = gzip(identity);
+        String tag = sha256Hex(identity);
+        LOGGER.info("Preloaded {} ({} bytes, {} bytes gzipped)", name, identity.length, gzipped.length);
+        return new Asset(contentTypeOf(name), tag, identity, gzipped);
+    }
+
+    private static byte[] readResource(String name) {
+        try (InputStream in = PreloadedAssets.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null)
+                throw new IllegalArgumentException("No such resource: " + name);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read resource: " + name, e);
+        }
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256Hex(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ContentType contentTypeOf(String name) {
+        if (name.endsWith(".html"))
+            return ContentTypes.TEXT_HTML_UTF8;
+        if (name.endsWith(".js"))
+            return MediaTypes.APPLICATION_JAVASCRIPT.toContentType(HttpCharsets.UTF_8);
+        if (name.endsWith(".css"))
+            return MediaTypes.TEXT_CSS.toContentType(HttpCharsets.UTF_8);
+        return ContentTypes.APPLICATION_OCTET_STREAM;
+    }
+
+    /**
+     * Returns true if the Accept-Encoding header value allows gzip, i.e. lists gzip (or *) without q=0.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*"))
+                continue;
+            boolean rejected = false;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") && qValue(param.substring(2)) == 0.0)
+                    rejected = true;
+            }
+            if (!rejected)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The q value of a coding; a malformed one counts as 0, so that the coding is not used.
+     */
+    private static double qValue(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+
+    /**
+     * The prebuilt responses of a single asset. HttpResponse and ByteString are immutable, so they are shared between requests.
+     */
+    private static final class Asset {
+
+        private final String quotedTag;
+        private final String quotedGzipTag;
+        private final HttpResponse identity;
+        private final HttpResponse gzipped;
+        private final HttpResponse notModified;
+        private final HttpResponse gzipNotModified;
+
+        Asset(ContentType contentType, String tag, byte[] identityBytes, byte[] gzippedBytes) {
+            ETag etag = ETag.create(EntityTag.create(tag, false));
+            ETag gzipEtag = ETag.create(EntityTag.create(tag + "-gzip", false));
+            RawHeader vary = RawHeader.create("Vary", "Accept-Encoding");
+            this.quotedTag = "\"" + tag + "\"";
+            this.quotedGzipTag = "\"" + tag + "-gzip\"";
+            this.identity = HttpResponse.create()
+                .withEntity(HttpEntities.create(contentType, ByteString.fromArray(identityBytes)))
+                .addHeader(etag)
+                .addHeader(vary);
+            // gzip only pays off when it is actually smaller, which is not the case for tiny files
+            this.gzipped = gzippedBytes.length < identityBytes.length
+                ? HttpResponse.create()
+                    .withEntity(HttpEntities.create(contentType, ByteString.fromArray(gzippedBytes)))
+                    .addHeader(ContentEncoding.create(HttpEncodings.GZIP))
+                    .addHeader(gzipEtag)
+                    .addHeader(vary)
+                : identity;
+            this.notModified = HttpResponse.create()
+                .withStatus(StatusCodes.NOT_MODIFIED)
+                .addHeader(etag)
+                .addHeader(vary);
+            this.gzipNotModified = gzipped == identity
+                ? notModified
+                : HttpResponse.create()
+                    .withStatus(StatusCodes.NOT_MODIFIED)
+                    .addHeader(gzipEtag)
+                    .addHeader(vary);
+        }
+
+        HttpResponse select(Optional<String> ifNoneMatch, Optional<String> acceptEncoding) {
+            boolean gzip = acceptEncoding.isPresent() && acceptsGzip(acceptEncoding.get());
+            // either tag matches, as both name the same content
+            if (ifNoneMatch.isPresent() && matches(ifNoneMatch.get()))
+                return gzip ? gzipNotModified : notModified;
+            return gzip ? gzipped : identity;
+        }
+
+        private boolean matches(String ifNoneMatch) {
+            return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(quotedTag) || ifNoneMatch.contains(quotedGzipTag);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package session.benchmark;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.server.Route;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.softwaremill.session.BasicSessionEncoder;
+import com.softwaremill.session.OneOff;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionManager;
+import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
+import com.softwaremill.session.javadsl.SessionSerializers;
+import session.directives.AnonymousFastPath;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.softwaremill.session.javadsl.SessionTransports.HeaderST;
+
+/**
+ * Compares optionalSession and session with and without the {@link AnonymousFastPath}, for traffic mixes from only authenticated
+ * to only anonymous requests.
+ * <p>
+ * Every run streams the requests through the route Flow, the way a connection would, and reports the time and the bytes allocated
+ * (by all threads) per request. Each variant is run once before the measurements, to warm it up.
+ * <p>
+ * Usage: AnonymousSessionBenchmark [requests per run]
+ */
+public class AnonymousSessionBenchmark extends HttpSessionAwareDirectives<String> {
+
+    private static final String SECRET = "c05ll3lesrinf39t7mc5h6un6r0c69lgfno69dsak3vabeqamouq4328cuaekros401ajdpkh60rrtpd8ro24rbuqmgtnd1ebag6ljnb65i8a55d482ok7o0nch0bfbe";
+    private static final int[] ANONYMOUS_PERCENTS = {0, 50, 90, 99, 100};
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final HttpResponse ANONYMOUS = HttpResponse.create().withEntity("anonymous");
+    private static final HttpResponse AUTHENTICATED = HttpResponse.create().withEntity("authenticated");
+
+    private final OneOff<String> oneOffSession;
+    private final AnonymousFastPath<String> anonymous;
+
+    private AnonymousSessionBenchmark() {
+        super(new SessionManager<>(
+                SessionConfig.defaultConfig(SECRET),
+                new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer)
+            )
+        );
+        oneOffSession = new OneOff<>(getSessionManager());
+        anonymous = new AnonymousFastPath<>(getSessionManager().config(), HeaderST);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        ActorSystem system = ActorSystem.create("benchmark");
+        Materializer materializer = ActorMaterializer.create(system);
+        AnonymousSessionBenchmark benchmark = new AnonymousSessionBenchmark();
+
+        HttpRequest anonymousRequest = HttpRequest.GET("/");
+        HttpRequest authenticatedRequest = HttpRequest.GET("/").addHeader(RawHeader.create(
+            benchmark.getSessionManager().config().sessionHeaderConfig().getFromClientHeaderName(),
+            benchmark.getSessionManager().clientSessionManager().encode("my_login")
+        ));
+
+        Map<String, Flow<HttpRequest, HttpResponse, NotUsed>> variants = new LinkedHashMap<>();
+        for (Map.Entry<String, Route> variant : benchmark.variants().entrySet()) {
+            variants.put(variant.getKey(), variant.getValue().flow(system, materializer));
+        }
+        for (Flow<HttpRequest, HttpResponse, NotUsed> flow : variants.values()) {
+            run(flow, materializer, anonymousRequest, authenticatedRequest, 50, requests);
+        }
+
+        System.out.println(String.format("%-10s %-30s %12s %14s", "anonymous", "directive", "ns/request", "bytes/request"));
+        for (int percent : ANONYMOUS_PERCENTS) {
+            for (Map.Entry<String, Flow<HttpRequest, HttpResponse, NotUsed>> variant : variants.entrySet()) {
+                long[] result = run(variant.getValue(), materializer, anonymousRequest, authenticatedRequest, percent, requests);
+                System.out.println(String.format("%9d%% %-30s %,12d %,14d", percent, variant.getKey(), result[0] / requests, result[1] / requests));
+            }
+        }
+        system.terminate();
+    }
+
+    private Map<String, Route> variants() {
+        Map<String, Route> variants = new LinkedHashMap<>();
+        variants.put("optionalSession",
+            optionalSession(oneOffSession, HeaderST, session ->
+                complete(session.isPresent() ? AUTHENTICATED : ANONYMOUS)
+            )
+        );
+        variants.put("optionalSession + fast path",
+            anonymous.optionalSession(next -> optionalSession(oneOffSession, HeaderST, next), session ->
+                complete(session.isPresent() ? AUTHENTICATED : ANONYMOUS)
+            )
+        );
+        variants.put("session",
+            session(oneOffSession, HeaderST, session ->
+                complete(session.toOption().isDefined() ? AUTHENTICATED : ANONYMOUS)
+            )
+        );
+        variants.put("session + fast path",
+            anonymous.session(next -> session(oneOffSession, HeaderST, next), session ->
+                complete(session.toOption().isDefined() ? AUTHENTICATED : ANONYMOUS)
+            )
+        );
+        return variants;
+    }
+
+    /**
+     * Streams the requests through the flow, and returns the elapsed nanos and the allocated bytes.
+     */
+    private static long[] run(Flow<HttpRequest, HttpResponse, NotUsed> flow, Materializer materializer,
+                              HttpRequest anonymousRequest, HttpRequest authenticatedRequest, int anonymousPercent, int requests) throws Exception {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        Source.range(0, requests - 1)
+            .map(i -> i % 100 < anonymousPercent ? anonymousRequest : authenticatedRequest)
+            .via(flow)
+            .runWith(Sink.ignore(), materializer)
+            .toCompletableFuture()
+            .get();
+        return new long[]{System.nanoTime() - start, allocatedBytes() - allocatedBefore};
+    }
+
+    private static long allocatedBytes() {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            if (bytes > 0)
+                total += bytes;
+        }
+        return total;
+    }
+}
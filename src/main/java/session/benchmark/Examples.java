@@ -0,0 +1,72 @@
+package session.benchmark;
+
+import akka.actor.ActorSystem;
+import session.continuity.RefreshableSession;
+import session.csrf.CsrfProtection;
+import session.data_types.CustomTypeSession;
+import session.data_types.LongTypeSession;
+import session.data_types.MapTypeSession;
+import session.data_types.StringTypeSession;
+import session.directives.OptionalSessionDirective;
+import session.directives.SessionDirective;
+import session.directives.TouchRequiredSessionDirective;
+import session.jwt.JwtEncodedSession;
+import session.transport.CookieTransport;
+import session.transport.HeaderTransport;
+import session.warmup.Example;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access to the example route trees for the benchmarks, which run them in-process.
+ * <p>
+ * The constructors and createRoutes() of the examples stay private, as they are meant to be read top to bottom; each example
+ * hands out its routes and its request script through its static example(ActorSystem) instead.
+ */
+public final class Examples {
+
+    private static final Map<Class<?>, Factory> EXAMPLES = new LinkedHashMap<>();
+
+    static {
+        EXAMPLES.put(StringTypeSession.class, StringTypeSession::example);
+        EXAMPLES.put(LongTypeSession.class, LongTypeSession::example);
+        EXAMPLES.put(MapTypeSession.class, MapTypeSession::example);
+        EXAMPLES.put(CustomTypeSession.class, CustomTypeSession::example);
+        EXAMPLES.put(OptionalSessionDirective.class, OptionalSessionDirective::example);
+        EXAMPLES.put(SessionDirective.class, SessionDirective::example);
+        EXAMPLES.put(TouchRequiredSessionDirective.class, TouchRequiredSessionDirective::example);
+        EXAMPLES.put(HeaderTransport.class, HeaderTransport::example);
+        EXAMPLES.put(CookieTransport.class, CookieTransport::example);
+        EXAMPLES.put(RefreshableSession.class, RefreshableSession::example);
+        EXAMPLES.put(CsrfProtection.class, CsrfProtection::example);
+        EXAMPLES.put(JwtEncodedSession.class, JwtEncodedSession::example);
+    }
+
+    private Examples() {
+    }
+
+    /**
+     * All example classes.
+     */
+    public static List<Class<?>> all() {
+        return new ArrayList<>(EXAMPLES.keySet());
+    }
+
+    /**
+     * Creates the example, with its routes and request script, on the given actor system.
+     */
+    public static Example create(Class<?> example, ActorSystem system) throws Exception {
+        Factory factory = EXAMPLES.get(example);
+        if (factory == null)
+            throw new IllegalArgumentException("Not an example: " + example.getName());
+        return factory.create(system);
+    }
+
+    private interface Factory {
+
+        Example create(ActorSystem system) throws Exception;
+    }
+}
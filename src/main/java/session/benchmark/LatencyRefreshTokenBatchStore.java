@@ -0,0 +1,75 @@
+package session.benchmark;
+
+import akka.dispatch.Futures;
+import com.softwaremill.session.RefreshTokenData;
+import com.softwaremill.session.RefreshTokenLookupResult;
+import scala.Option;
+import scala.compat.java8.JFunction0;
+import scala.concurrent.Future;
+import scala.concurrent.Promise;
+import session.continuity.RefreshTokenBatchStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A local stand-in for a remote refresh token store: an in-memory map, whose every call takes a fixed round trip latency.
+ * <p>
+ * The operations of a batch are applied in order when the call is made, and the Future completes after the latency, like the
+ * response of a pipelined request to a remote store.
+ */
+public class LatencyRefreshTokenBatchStore<T> implements RefreshTokenBatchStore<T> {
+
+    private final long latencyMicros;
+    private final Map<String, RefreshTokenData<T>> tokens = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService network = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stand-in-network");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LongAdder calls = new LongAdder();
+
+    public LatencyRefreshTokenBatchStore(long latency, TimeUnit unit) {
+        this.latencyMicros = unit.toMicros(latency);
+    }
+
+    @Override
+    public Future<List<Option<RefreshTokenLookupResult<T>>>> execute(List<Operation<T>> operations) {
+        calls.increment();
+        List<Option<RefreshTokenLookupResult<T>>> results = new ArrayList<>(operations.size());
+        for (Operation<T> operation : operations) {
+            switch (operation.kind()) {
+                case LOOKUP:
+                    RefreshTokenData<T> data = tokens.get(operation.selector());
+                    results.add(data == null ? Option.<RefreshTokenLookupResult<T>>empty() : Option.apply(
+                        new RefreshTokenLookupResult<>(data.tokenHash(), data.expires(), (JFunction0<T>) data::forSession)
+                    ));
+                    break;
+                case STORE:
+                    tokens.put(operation.selector(), operation.data());
+                    results.add(Option.<RefreshTokenLookupResult<T>>empty());
+                    break;
+                case REMOVE:
+                    tokens.remove(operation.selector());
+                    results.add(Option.<RefreshTokenLookupResult<T>>empty());
+                    break;
+            }
+        }
+        Promise<List<Option<RefreshTokenLookupResult<T>>>> response = Futures.promise();
+        network.schedule(() -> response.success(results), latencyMicros, TimeUnit.MICROSECONDS);
+        return response.future();
+    }
+
+    /**
+     * How many batches were executed, i.e. round trips made.
+     */
+    public long callCount() {
+        return calls.sum();
+    }
+}
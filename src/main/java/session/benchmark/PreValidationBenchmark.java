@@ -0,0 +1,84 @@
+package session.benchmark;
+
+import com.softwaremill.session.BasicSessionEncoder;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionEncoder;
+import com.softwaremill.session.javadsl.SessionSerializers;
+import session.data_types.LongSessionEncoder;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShape;
+import session.validation.TokenShapes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of decoding valid and junk tokens with and without a {@link PreValidatingSessionEncoder}.
+ * <p>
+ * The junk tokens are the ones scanners and stale clients send: random strings, truncated tokens, and tokens which expired a day
+ * ago, with a valid or an invalid signature. Every variant is run once before the measurements, to warm it up.
+ * <p>
+ * Usage: PreValidationBenchmark [decodes per run]
+ */
+public class PreValidationBenchmark {
+
+    private static final String SECRET = "c05ll3lesrinf39t7mc5h6un6r0c69lgfno69dsak3vabeqamouq4328cuaekros401ajdpkh60rrtpd8ro24rbuqmgtnd1ebag6ljnb65i8a55d482ok7o0nch0bfbe";
+    private static final SessionConfig CONFIG = SessionConfig.defaultConfig(SECRET);
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        int decodes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long now = System.currentTimeMillis();
+        long dayAgo = now - TimeUnit.DAYS.toMillis(1) - TimeUnit.SECONDS.toMillis((Long) CONFIG.sessionMaxAgeSeconds().get());
+
+        SessionEncoder<String> basic = new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer);
+        String basicValid = basic.encode("my_login", now, CONFIG);
+        String basicExpired = basic.encode("my_login", dayAgo, CONFIG);
+        Map<String, String> basicTokens = new LinkedHashMap<>();
+        basicTokens.put("valid", basicValid);
+        basicTokens.put("random", "' OR 1=1 --");
+        basicTokens.put("truncated", basicValid.substring(0, 20));
+        basicTokens.put("expired", basicExpired);
+        basicTokens.put("expired, forged", "0" + basicExpired.substring(1));
+        run("BasicSessionEncoder", basic, TokenShapes.basic(4096), basicTokens, decodes);
+
+        LongSessionEncoder longs = new LongSessionEncoder();
+        String longValid = longs.encodeLong(42L, now, CONFIG);
+        String longExpired = longs.encodeLong(42L, dayAgo, CONFIG);
+        Map<String, String> longTokens = new LinkedHashMap<>();
+        longTokens.put("valid", longValid);
+        longTokens.put("random", "' OR 1=1 --");
+        longTokens.put("truncated", longValid.substring(0, 20));
+        longTokens.put("expired", longExpired);
+        longTokens.put("expired, forged", longExpired.substring(0, 63) + (longExpired.charAt(63) == 'A' ? 'B' : 'A'));
+        run("LongSessionEncoder", longs, TokenShapes.longRecord(), longTokens, decodes);
+    }
+
+    private static <T> void run(String name, SessionEncoder<T> encoder, TokenShape shape, Map<String, String> tokens, int decodes) {
+        PreValidatingSessionEncoder<T> preValidating = new PreValidatingSessionEncoder<>(encoder, shape);
+        for (String token : tokens.values()) {
+            decode(encoder, token, decodes);
+            decode(preValidating, token, decodes);
+        }
+        System.out.println(name);
+        System.out.println(String.format("  %-18s %14s %18s", "token", "decode ns", "pre-validated ns"));
+        for (Map.Entry<String, String> token : tokens.entrySet()) {
+            System.out.println(String.format("  %-18s %,14d %,18d", token.getKey(),
+                decode(encoder, token.getValue(), decodes), decode(preValidating, token.getValue(), decodes)));
+        }
+        System.out.println("  " + preValidating);
+    }
+
+    /**
+     * Decodes the token the given number of times, and returns the nanos per decode.
+     */
+    private static long decode(SessionEncoder<?> encoder, String token, int decodes) {
+        long start = System.nanoTime();
+        for (int i = 0; i < decodes; i++) {
+            sink = encoder.decode(token, CONFIG);
+        }
+        return (System.nanoTime() - start) / decodes;
+    }
+}
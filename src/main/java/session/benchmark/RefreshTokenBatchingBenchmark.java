@@ -0,0 +1,96 @@
+package session.benchmark;
+
+import com.softwaremill.session.RefreshTokenData;
+import com.softwaremill.session.RefreshTokenStorage;
+import scala.concurrent.Await;
+import scala.concurrent.Future;
+import scala.concurrent.duration.Duration;
+import session.continuity.BatchingRefreshTokenStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares one round trip per refresh token operation with micro-batching, against a {@link LatencyRefreshTokenBatchStore}.
+ * <p>
+ * Each worker thread stands for a request at a time: it logs in (a store), then refreshes in a loop, the way Refreshable does: it
+ * looks its token up, stores the successor and removes the used one, waiting for every operation. For every batch size and thread
+ * count, the throughput, the mean latency of an operation and the round trips per operation are reported. A batch size of 1 makes
+ * every operation a round trip of its own.
+ * <p>
+ * Usage: RefreshTokenBatchingBenchmark [seconds per run] [max threads] [round trip latency in microseconds]
+ */
+public class RefreshTokenBatchingBenchmark {
+
+    private static final int[] BATCH_SIZES = {1, 16, 64};
+    private static final long WINDOW_MICROS = 500;
+    private static final long AWAIT_SECONDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        long latencyMicros = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+        System.out.println(String.format("%6s %8s %14s %12s %16s", "batch", "threads", "operations/s", "latency us", "round trips/op"));
+        for (int batchSize : BATCH_SIZES) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                LatencyRefreshTokenBatchStore<String> store = new LatencyRefreshTokenBatchStore<>(latencyMicros, TimeUnit.MICROSECONDS);
+                BatchingRefreshTokenStorage<String> storage = new BatchingRefreshTokenStorage<>(
+                    store, batchSize, batchSize == 1 ? 0 : WINDOW_MICROS, TimeUnit.MICROSECONDS
+                );
+                LongAdder operations = new LongAdder();
+                LongAdder latencyNanos = new LongAdder();
+                long elapsed = run(storage, threads, seconds, operations, latencyNanos);
+                storage.close();
+                long count = operations.sum();
+                System.out.println(String.format("%6d %8d %,14.0f %,12.0f %16.3f",
+                    batchSize, threads, count * 1e9 / elapsed, latencyNanos.sum() / 1000.0 / count, (double) store.callCount() / count));
+            }
+        }
+    }
+
+    private static long run(RefreshTokenStorage<String> storage, int threads, int seconds, LongAdder operations, LongAdder latencyNanos)
+        throws InterruptedException {
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                String session = "user-" + Thread.currentThread().getId();
+                String selector = UUID.randomUUID().toString();
+                timed(storage.store(token(session, selector)), operations, latencyNanos);
+                while (System.nanoTime() - deadline < 0) {
+                    timed(storage.lookup(selector), operations, latencyNanos);
+                    String next = UUID.randomUUID().toString();
+                    timed(storage.store(token(session, next)), operations, latencyNanos);
+                    timed(storage.remove(selector), operations, latencyNanos);
+                    selector = next;
+                }
+            }, "refresh-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - started;
+    }
+
+    private static RefreshTokenData<String> token(String session, String selector) {
+        return new RefreshTokenData<>(session, selector, UUID.randomUUID().toString(), System.currentTimeMillis() + TimeUnit.DAYS.toMillis(30));
+    }
+
+    private static void timed(Future<?> future, LongAdder operations, LongAdder latencyNanos) {
+        long start = System.nanoTime();
+        try {
+            Await.result(future, Duration.create(AWAIT_SECONDS, TimeUnit.SECONDS));
+        } catch (Exception e) {
+            throw new IllegalStateException("Storage operation did not complete", e);
+        }
+        latencyNanos.add(System.nanoTime() - start);
+        operations.increment();
+    }
+}
@@ -0,0 +1,96 @@
+package session.benchmark;
+
+import com.softwaremill.session.Crypto;
+import com.softwaremill.session.RefreshTokenData;
+import com.softwaremill.session.javadsl.InMemoryRefreshTokenStorage;
+import com.softwaremill.session.javadsl.SessionSerializers;
+import session.continuity.CompactRefreshTokens;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Measures the heap used per refresh token by the in-memory token layouts, for each of the given token counts.
+ * <p>
+ * The tokens look like the ones of Refreshable: a 16 character base32 selector, the hex SHA-256 hash of a random token, an expiry,
+ * and a String session. Every layout stores the same tokens, and the heap is measured after a full GC before and after storing them.
+ * Ten million tokens in the String layouts need several GB of heap, e.g. -Xmx8g; a layout which does not fit is reported as such.
+ * <p>
+ * Usage: RefreshTokenFootprintBenchmark [tokens...]
+ */
+public class RefreshTokenFootprintBenchmark {
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final long SEED = 42;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        long[] counts = args.length > 0 ? new long[args.length] : new long[]{1_000_000, 10_000_000};
+        for (int i = 0; i < args.length; i++) {
+            counts[i] = Long.parseLong(args[i]);
+        }
+
+        Map<String, Supplier<Consumer<RefreshTokenData<String>>>> layouts = new LinkedHashMap<>();
+        layouts.put("ConcurrentHashMap of Strings", () -> {
+            Map<String, RefreshTokenData<String>> tokens = new ConcurrentHashMap<>();
+            return data -> tokens.put(data.selector(), data);
+        });
+        layouts.put("InMemoryRefreshTokenStorage", () -> {
+            InMemoryRefreshTokenStorage<String> tokens = new InMemoryRefreshTokenStorage<String>() {
+                @Override
+                public void log(String msg) {
+                }
+            };
+            return tokens::store;
+        });
+        layouts.put("CompactRefreshTokens", () -> {
+            CompactRefreshTokens<String> tokens = new CompactRefreshTokens<>(SessionSerializers.StringToStringSessionSerializer);
+            return tokens::store;
+        });
+
+        System.out.println(String.format("%-30s %14s %16s", "layout", "tokens", "bytes per token"));
+        for (long count : counts) {
+            for (Map.Entry<String, Supplier<Consumer<RefreshTokenData<String>>>> layout : layouts.entrySet()) {
+                System.out.println(String.format("%-30s %,14d %16s", layout.getKey(), count, bytesPerToken(layout.getValue(), count)));
+            }
+        }
+    }
+
+    /**
+     * Stores the tokens in a new instance of the layout, and returns the heap they use, per token.
+     */
+    private static String bytesPerToken(Supplier<Consumer<RefreshTokenData<String>>> layout, long count) {
+        long before = usedHeap();
+        Consumer<RefreshTokenData<String>> tokens = layout.get();
+        // keeps the tokens reachable until they are measured
+        sink = tokens;
+        Random random = new Random(SEED);
+        long expires = System.currentTimeMillis();
+        try {
+            for (long i = 0; i < count; i++) {
+                String selector = new BigInteger(80, random).toString(32);
+                String tokenHash = Crypto.hash_SHA256(new BigInteger(320, random).toString(32));
+                tokens.accept(new RefreshTokenData<>("user-" + i, selector, tokenHash, expires + i));
+            }
+        } catch (OutOfMemoryError e) {
+            sink = null;
+            return "out of heap";
+        }
+        long after = usedHeap();
+        sink = null;
+        return String.format("%,d", (after - before) / count);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,342 @@
+package session.benchmark;
+
+import com.softwaremill.session.RefreshTokenData;
+import com.softwaremill.session.RefreshTokenLookupResult;
+import com.softwaremill.session.RefreshTokenStorage;
+import com.softwaremill.session.javadsl.InMemoryRefreshTokenStorage;
+import com.softwaremill.session.javadsl.SessionSerializers;
+import scala.Option;
+import scala.compat.java8.JFunction0;
+import scala.concurrent.Await;
+import scala.concurrent.Future;
+import scala.compat.java8.FutureConverters;
+import scala.concurrent.duration.Duration;
+import scala.runtime.BoxedUnit;
+import session.continuity.BatchingRefreshTokenStorage;
+import session.continuity.JournaledRefreshTokenStorage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A multi-threaded stress and linearizability check, which runs against any RefreshTokenStorage&lt;String&gt;.
+ * <p>
+ * Worker threads share a pool of refresh token selectors and mix three operations, the way Refreshable uses the storage:
+ * logins (store a new token), refreshes (look a token up, store its successor and schedule the removal of the used one) and plain
+ * lookups. Some logins get a token which expires within a few milliseconds; refreshing it removes it at once, as Refreshable does.
+ * A token is refreshed by the first worker which claims it: the storage has no atomic consume, and Refreshable keeps a used token
+ * until remove-used-token-after, so two concurrent refreshes of one token would both succeed against a correct storage.
+ * The start and completion time of every store and remove is recorded, and each lookup result is checked against them:
+ * <ul>
+ * <li>lost token: a lookup started after the store of a token completed, no removal was scheduled, and the token was not found</li>
+ * <li>double use: a lookup started after the removal of a token completed, and the token was still found</li>
+ * <li>corrupt: a token was found with a different hash, expiry or session than stored</li>
+ * <li>leaked: after the run and all of its removals, a used or expired token is still found, or its removal never completed</li>
+ * </ul>
+ * For every thread count, the throughput is reported. The process exits with 1 if any violation was found.
+ * <p>
+ * Usage: RefreshTokenStorageStress [seconds per run] [max threads]
+ */
+public class RefreshTokenStorageStress {
+
+    private static final long REMOVE_AFTER_MILLIS = 50;
+    private static final long EXPIRING_MILLIS = 100;
+    private static final long AWAIT_SECONDS = 10;
+    private static final int POOL_SIZE = 1024;
+
+    private final Supplier<RefreshTokenStorage<String>> storages;
+
+    private RefreshTokenStorageStress(Supplier<RefreshTokenStorage<String>> storages) {
+        this.storages = storages;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+
+        Map<String, Supplier<RefreshTokenStorage<String>>> storages = new LinkedHashMap<>();
+        storages.put("InMemoryRefreshTokenStorage", () -> new InMemoryRefreshTokenStorage<String>() {
+            @Override
+            public void log(String msg) {
+            }
+        });
+        storages.put("JournaledRefreshTokenStorage", () -> new JournaledRefreshTokenStorage<>(
+            tempJournal(), SessionSerializers.StringToStringSessionSerializer, 256, 5, TimeUnit.MILLISECONDS
+        ));
+        storages.put("BatchingRefreshTokenStorage", () -> new BatchingRefreshTokenStorage<>(
+            new LatencyRefreshTokenBatchStore<>(500, TimeUnit.MICROSECONDS), 64, 500, TimeUnit.MICROSECONDS
+        ));
+
+        boolean failed = false;
+        for (Map.Entry<String, Supplier<RefreshTokenStorage<String>>> storage : storages.entrySet()) {
+            System.out.println(storage.getKey());
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                Result result = new RefreshTokenStorageStress(storage.getValue()).run(threads, seconds);
+                System.out.println("  " + result);
+                failed |= result.violations() > 0;
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Runs the workload with the given number of threads against a fresh storage.
+     */
+    public Result run(int threads, int seconds) throws InterruptedException {
+        RefreshTokenStorage<String> storage = storages.get();
+        Run run = new Run(storage);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline) {
+                        run.step();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "stress-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        long startedAt = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - startedAt;
+
+        // wait for the scheduled removals to complete, then look for tokens which should be gone
+        run.awaitRemovals();
+        run.checkLeaks();
+        if (storage instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) storage).close();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return new Result(threads, run.operations.sum(), elapsed, run.lost.sum(), run.doubleUse.sum(), run.corrupt.sum(), run.leaked.sum());
+    }
+
+    private static Path tempJournal() {
+        try {
+            Path journal = Files.createTempFile("refresh-tokens", ".journal");
+            journal.toFile().deleteOnExit();
+            return journal;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return Await.result(future, Duration.create(AWAIT_SECONDS, TimeUnit.SECONDS));
+        } catch (Exception e) {
+            throw new IllegalStateException("Storage operation did not complete", e);
+        }
+    }
+
+    /**
+     * The history of a single token.
+     */
+    private static final class Token {
+
+        private final String selector;
+        private final String hash;
+        private final String session;
+        private final long expires;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile long storedAt;
+        private volatile long removeScheduledAt;
+        private volatile long removedAt;
+
+        Token(String selector, String hash, String session, long expires) {
+            this.selector = selector;
+            this.hash = hash;
+            this.session = session;
+            this.expires = expires;
+        }
+    }
+
+    private static final class Run {
+
+        private final RefreshTokenStorage<String> storage;
+        private final AtomicReferenceArray<Token> pool = new AtomicReferenceArray<>(POOL_SIZE);
+        private final Map<String, Token> scheduledRemovals = new ConcurrentHashMap<>();
+        private final Queue<CompletableFuture<Void>> pendingRemovals = new ConcurrentLinkedQueue<>();
+        private final LongAdder operations = new LongAdder();
+        private final LongAdder lost = new LongAdder();
+        private final LongAdder doubleUse = new LongAdder();
+        private final LongAdder corrupt = new LongAdder();
+        private final LongAdder leaked = new LongAdder();
+
+        Run(RefreshTokenStorage<String> storage) {
+            this.storage = storage;
+        }
+
+        void step() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int slot = random.nextInt(POOL_SIZE);
+            Token token = pool.get(slot);
+            int dice = random.nextInt(10);
+            if (token == null || dice == 0) {
+                pool.set(slot, login());
+            } else if (dice < 4) {
+                refresh(slot, token);
+            } else {
+                lookup(token);
+            }
+            operations.increment();
+        }
+
+        private Token login() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            // one login in eight gets a token which expires during the run
+            long expires = System.currentTimeMillis() + (random.nextInt(8) == 0 ? random.nextLong(EXPIRING_MILLIS) : TimeUnit.DAYS.toMillis(30));
+            Token token = new Token(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "user-" + random.nextInt(1000), expires);
+            store(token);
+            return token;
+        }
+
+        private void store(Token token) {
+            await(storage.store(new RefreshTokenData<>(token.session, token.selector, token.hash, token.expires)));
+            token.storedAt = System.nanoTime();
+        }
+
+        private void refresh(int slot, Token used) {
+            // another worker refreshes the token
+            if (!used.claimed.compareAndSet(false, true))
+                return;
+            if (!lookup(used))
+                return;
+            if (used.expires < System.currentTimeMillis()) {
+                // an expired token is removed when it is used, and not refreshed
+                used.removeScheduledAt = System.nanoTime();
+                scheduledRemovals.put(used.selector, used);
+                await(storage.remove(used.selector));
+                used.removedAt = System.nanoTime();
+                pool.compareAndSet(slot, used, null);
+                return;
+            }
+            Token next = new Token(UUID.randomUUID().toString(), UUID.randomUUID().toString(), used.session, used.expires);
+            store(next);
+            pool.compareAndSet(slot, used, next);
+            used.removeScheduledAt = System.nanoTime();
+            scheduledRemovals.put(used.selector, used);
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            pendingRemovals.add(done);
+            // the removal runs on the storage's scheduler, so it is chained on the future rather than awaited there
+            storage.<BoxedUnit>schedule(Duration.create(REMOVE_AFTER_MILLIS, TimeUnit.MILLISECONDS), (JFunction0<Future<BoxedUnit>>) () -> {
+                Future<BoxedUnit> removed = storage.remove(used.selector);
+                FutureConverters.toJava(removed).whenComplete((unit, failure) -> {
+                    if (failure == null)
+                        used.removedAt = System.nanoTime();
+                    done.complete(null);
+                });
+                return removed;
+            });
+        }
+
+        /**
+         * Looks the token up and checks the result against its history; returns true if it was found intact.
+         */
+        private boolean lookup(Token token) {
+            long startedAt = System.nanoTime();
+            Option<RefreshTokenLookupResult<String>> result = await(storage.lookup(token.selector));
+            long removedAt = token.removedAt;
+            if (result.isEmpty()) {
+                if (token.storedAt != 0 && token.storedAt < startedAt && token.removeScheduledAt == 0)
+                    lost.increment();
+                return false;
+            }
+            if (removedAt != 0 && removedAt < startedAt)
+                doubleUse.increment();
+            RefreshTokenLookupResult<String> found = result.get();
+            if (!found.tokenHash().equals(token.hash) || found.expires() != token.expires || !found.createSession().apply().equals(token.session)) {
+                corrupt.increment();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Waits until every scheduled removal has completed; a removal which does not complete in time is reported as a leak.
+         */
+        void awaitRemovals() throws InterruptedException {
+            try {
+                CompletableFuture.allOf(pendingRemovals.toArray(new CompletableFuture[0])).get(AWAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                // the removals which did not complete are counted by checkLeaks
+            }
+        }
+
+        void checkLeaks() {
+            for (Token token : scheduledRemovals.values()) {
+                if (token.removedAt != 0 && await(storage.lookup(token.selector)).isDefined())
+                    leaked.increment();
+                else if (token.removedAt == 0)
+                    // the removal never ran
+                    leaked.increment();
+            }
+        }
+    }
+
+    public static final class Result {
+
+        private final int threads;
+        private final long operations;
+        private final long elapsedNanos;
+        private final long lost;
+        private final long doubleUse;
+        private final long corrupt;
+        private final long leaked;
+
+        Result(int threads, long operations, long elapsedNanos, long lost, long doubleUse, long corrupt, long leaked) {
+            this.threads = threads;
+            this.operations = operations;
+            this.elapsedNanos = elapsedNanos;
+            this.lost = lost;
+            this.doubleUse = doubleUse;
+            this.corrupt = corrupt;
+            this.leaked = leaked;
+        }
+
+        public long violations() {
+            return lost + doubleUse + corrupt + leaked;
+        }
+
+        public double operationsPerSecond() {
+            return operations * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%3d threads: %,12.0f ops/s (%,10.0f per thread) lost=%d doubleUse=%d corrupt=%d leaked=%d",
+                threads, operationsPerSecond(), operationsPerSecond() / threads, lost, doubleUse, corrupt, leaked);
+        }
+    }
+}
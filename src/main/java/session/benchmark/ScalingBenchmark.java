@@ -0,0 +1,290 @@
+package session.benchmark;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.japi.Pair;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.SinkQueueWithCancel;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import com.typesafe.config.ConfigFactory;
+import session.warmup.Example;
+import session.warmup.Script;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how the throughput of the example route trees scales with the number of dispatcher threads.
+ * <p>
+ * For every example and thread count (1, 2, 4, ... up to max threads), the routes of the example are run in-process on a fresh
+ * ActorSystem whose default dispatcher has exactly that many threads. {@value #CONNECTIONS_PER_THREAD} connections per thread send
+ * the warm-up {@link Script} of the example in a loop; a connection is a single materialization of the route Flow, which gets the
+ * next request when the previous response arrived, like a keep-alive connection. No client threads are involved.
+ * <p>
+ * The throughput is printed as a table and a bar chart, with the speedup and efficiency relative to one thread. While measuring,
+ * the JVM threads are sampled every {@value #SAMPLE_MILLIS} ms: a thread which is blocked on a monitor, or waits for a lock owned
+ * by another thread, counts for that lock and the frame it waits in. The locks with more than {@value #FLAGGED_PERCENT}% of the
+ * samples of a run are flagged as contended, together with the time the dispatcher threads spent blocked.
+ * <p>
+ * The examples are created by {@link Examples}, so that exactly the routes of the examples are measured. Their logging stays on, as
+ * it is part of what runs on every request.
+ * <p>
+ * Usage: ScalingBenchmark [seconds per run] [max threads] [example class names...]
+ */
+public class ScalingBenchmark {
+
+    private static final int CONNECTIONS_PER_THREAD = 4;
+    private static final int WARMUP_SECONDS = 2;
+    private static final long SAMPLE_MILLIS = 5;
+    private static final int FLAGGED_PERCENT = 1;
+    private static final int CHART_WIDTH = 50;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        List<Class<?>> examples = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            examples.add(Class.forName(args[i]));
+        }
+        if (examples.isEmpty())
+            examples.addAll(Examples.all());
+
+        if (THREADS.isThreadContentionMonitoringSupported())
+            THREADS.setThreadContentionMonitoringEnabled(true);
+
+        for (Class<?> example : examples) {
+            List<Result> results = new ArrayList<>();
+            for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads && threads * 2 > maxThreads ? maxThreads : threads * 2) {
+                results.add(run(example, threads, seconds));
+            }
+            print(example, results);
+        }
+    }
+
+    /**
+     * Runs the example on a dispatcher with the given number of threads: first for {@value #WARMUP_SECONDS} seconds to warm up,
+     * then for the given number of seconds while sampling the lock contention.
+     */
+    private static Result run(Class<?> example, int threads, int seconds) throws Exception {
+        ActorSystem system = ActorSystem.create("scaling", ConfigFactory.parseString(
+            "akka.actor.default-dispatcher.fork-join-executor { parallelism-min = " + threads + ", parallelism-max = " + threads + " }"
+        ).withFallback(ConfigFactory.load()));
+        try {
+            Materializer materializer = ActorMaterializer.create(system);
+            Example app = Examples.create(example, system);
+            Flow<HttpRequest, HttpResponse, NotUsed> routes = app.routes().flow(system, materializer);
+            Script script = app.script();
+
+            List<Connection> connections = new ArrayList<>();
+            for (int c = 0; c < threads * CONNECTIONS_PER_THREAD; c++) {
+                connections.add(new Connection(routes, materializer));
+            }
+            drive(connections, script, materializer, WARMUP_SECONDS, new LongAdder());
+
+            ContentionSampler sampler = new ContentionSampler();
+            long blockedBefore = blockedMillis();
+            LongAdder requests = new LongAdder();
+            Thread samplerThread = new Thread(sampler, "contention-sampler");
+            samplerThread.setDaemon(true);
+            samplerThread.start();
+            long started = System.nanoTime();
+            long failures = drive(connections, script, materializer, seconds, requests);
+            long elapsed = System.nanoTime() - started;
+            sampler.stop();
+            samplerThread.join();
+
+            for (Connection connection : connections) {
+                connection.close();
+            }
+            return new Result(threads, requests.sum(), failures, elapsed, blockedMillis() - blockedBefore, sampler);
+        } finally {
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Sends the script on all connections until the time is up, and returns the number of failed requests.
+     */
+    private static long drive(List<Connection> connections, Script script, Materializer materializer, int seconds, LongAdder requests) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        LongAdder failures = new LongAdder();
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (Connection connection : connections) {
+            CompletableFuture<Void> connectionDone = new CompletableFuture<>();
+            loop(connection, script, materializer, deadline, requests, failures, connectionDone);
+            done.add(connectionDone);
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture[0])).get(seconds + 60, TimeUnit.SECONDS);
+        return failures.sum();
+    }
+
+    private static void loop(Connection connection, Script script, Materializer materializer, long deadline,
+                             LongAdder requests, LongAdder failures, CompletableFuture<Void> done) {
+        script.round(request -> {
+                requests.increment();
+                return connection.send(request);
+            }, materializer
+        ).whenComplete((failed, error) -> {
+            if (error != null) {
+                done.completeExceptionally(error);
+                return;
+            }
+            failures.add(failed);
+            if (System.nanoTime() - deadline < 0)
+                loop(connection, script, materializer, deadline, requests, failures, done);
+            else
+                done.complete(null);
+        });
+    }
+
+    private static long blockedMillis() {
+        long millis = 0;
+        for (ThreadInfo info : THREADS.getThreadInfo(THREADS.getAllThreadIds())) {
+            if (info != null && info.getThreadName().startsWith("scaling-akka.actor.default-dispatcher") && info.getBlockedTime() > 0)
+                millis += info.getBlockedTime();
+        }
+        return millis;
+    }
+
+    private static void print(Class<?> example, List<Result> results) {
+        System.out.println(example.getSimpleName());
+        double single = results.get(0).requestsPerSecond();
+        double best = results.stream().mapToDouble(Result::requestsPerSecond).max().orElse(1);
+        System.out.println(String.format("  %7s %14s %8s %10s %10s %8s", "threads", "requests/s", "speedup", "efficiency", "blocked ms", "failed"));
+        for (Result result : results) {
+            double speedup = result.requestsPerSecond() / single;
+            int bar = (int) Math.round(CHART_WIDTH * result.requestsPerSecond() / best);
+            System.out.println(String.format("  %7d %,14.0f %7.2fx %9.0f%% %,10d %8d  %s",
+                result.threads, result.requestsPerSecond(), speedup, 100 * speedup / result.threads, result.blockedMillis, result.failures,
+                String.join("", Collections.nCopies(bar, "#"))));
+        }
+        for (Result result : results) {
+            for (Map.Entry<String, Long> lock : result.sampler.contended()) {
+                System.out.println(String.format("  contended at %d threads: %5.1f%% of samples  %s",
+                    result.threads, 100.0 * lock.getValue() / result.sampler.samples, lock.getKey()));
+            }
+        }
+    }
+
+    /**
+     * A single materialization of the route Flow, which is sent one request at a time.
+     */
+    private static final class Connection {
+
+        private final SourceQueueWithComplete<HttpRequest> requests;
+        private final SinkQueueWithCancel<HttpResponse> responses;
+
+        Connection(Flow<HttpRequest, HttpResponse, NotUsed> routes, Materializer materializer) {
+            Pair<SourceQueueWithComplete<HttpRequest>, SinkQueueWithCancel<HttpResponse>> queues =
+                Source.<HttpRequest>queue(1, OverflowStrategy.backpressure())
+                    .via(routes)
+                    .toMat(Sink.queue(), Keep.both())
+                    .run(materializer);
+            this.requests = queues.first();
+            this.responses = queues.second();
+        }
+
+        CompletionStage<HttpResponse> send(HttpRequest request) {
+            return requests.offer(request)
+                .thenCompose(offered -> responses.pull())
+                .thenApply(response -> response.orElseThrow(() -> new IllegalStateException("The connection was closed")));
+        }
+
+        void close() {
+            requests.complete();
+        }
+    }
+
+    /**
+     * Samples the threads which wait for a lock, by lock class and the frame they wait in.
+     */
+    private static final class ContentionSampler implements Runnable {
+
+        private final Map<String, Long> counts = new HashMap<>();
+        private volatile boolean stopped;
+        private long samples;
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                for (ThreadInfo info : THREADS.getThreadInfo(THREADS.getAllThreadIds(), 1)) {
+                    if (info == null || info.getLockName() == null)
+                        continue;
+                    // parked idle threads wait for a lock too, but one nobody owns
+                    if (info.getThreadState() != Thread.State.BLOCKED && info.getLockOwnerName() == null)
+                        continue;
+                    String lock = info.getLockName().replaceAll("@[0-9a-f]+$", "");
+                    String frame = info.getStackTrace().length > 0 ? " in " + info.getStackTrace()[0] : "";
+                    counts.merge(lock + frame, 1L, Long::sum);
+                }
+                samples++;
+                try {
+                    Thread.sleep(SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        /**
+         * The locks with more than {@value #FLAGGED_PERCENT}% of the samples, most contended first.
+         */
+        List<Map.Entry<String, Long>> contended() {
+            List<Map.Entry<String, Long>> contended = new ArrayList<>();
+            for (Map.Entry<String, Long> count : counts.entrySet()) {
+                if (count.getValue() * 100 > samples * FLAGGED_PERCENT)
+                    contended.add(count);
+            }
+            contended.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+            return contended;
+        }
+    }
+
+    private static final class Result {
+
+        private final int threads;
+        private final long requests;
+        private final long failures;
+        private final long elapsedNanos;
+        private final long blockedMillis;
+        private final ContentionSampler sampler;
+
+        Result(int threads, long requests, long failures, long elapsedNanos, long blockedMillis, ContentionSampler sampler) {
+            this.threads = threads;
+            this.requests = requests;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.blockedMillis = blockedMillis;
+            this.sampler = sampler;
+        }
+
+        double requestsPerSecond() {
+            return requests * 1e9 / elapsedNanos;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package session.benchmark;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.sse.ServerSentEvent;
+import akka.http.javadsl.server.Route;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.softwaremill.session.BasicSessionEncoder;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionEncoder;
+import com.softwaremill.session.SessionManager;
+import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
+import com.softwaremill.session.javadsl.SessionSerializers;
+import com.typesafe.config.ConfigFactory;
+import session.streaming.Revocations;
+import session.streaming.SessionStreams;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.softwaremill.session.javadsl.SessionTransports.HeaderST;
+
+/**
+ * Opens many idle server-sent event streams through {@link SessionStreams}, and measures what they cost while open, and how soon
+ * they end once their session is revoked or expired.
+ * <p>
+ * Every stream has a session of its own, which expires after the given number of seconds. When all streams are open, the heap
+ * and the threads are measured, a tenth of the sessions is revoked, and the remaining streams are left to expire.
+ * <p>
+ * Usage: StreamingSessionBenchmark [streams] [session seconds]
+ */
+public class StreamingSessionBenchmark extends HttpSessionAwareDirectives<String> {
+
+    private static final String SECRET = "c05ll3lesrinf39t7mc5h6un6r0c69lgfno69dsak3vabeqamouq4328cuaekros401ajdpkh60rrtpd8ro24rbuqmgtnd1ebag6ljnb65i8a55d482ok7o0nch0bfbe";
+    private static final SessionEncoder<String> BASIC_ENCODER = new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer);
+    private static final long CHECK_SECONDS = 1;
+    private static final int REVOKED_EVERY = 10;
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private final Revocations revocations = new Revocations();
+    private final SessionStreams<String> sessionStreams;
+
+    private StreamingSessionBenchmark(SessionConfig config) {
+        super(new SessionManager<>(config, BASIC_ENCODER));
+        sessionStreams = new SessionStreams<>(getSessionManager(), BASIC_ENCODER, HeaderST, revocations, CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int streams = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int sessionSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        ActorSystem system = ActorSystem.create("benchmark");
+        Materializer materializer = ActorMaterializer.create(system);
+        StreamingSessionBenchmark benchmark = new StreamingSessionBenchmark(SessionConfig.fromConfig(ConfigFactory.parseString(
+            "akka.http.session.server-secret = \"" + SECRET + "\"\nakka.http.session.max-age = " + sessionSeconds + " seconds"
+        ).withFallback(ConfigFactory.load())));
+        Flow<HttpRequest, HttpResponse, NotUsed> routes = benchmark.routes().flow(system, materializer);
+        String header = benchmark.getSessionManager().config().sessionHeaderConfig().getFromClientHeaderName();
+
+        long heapBefore = usedHeap();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long started = System.currentTimeMillis();
+        List<String> tokens = new ArrayList<>(streams);
+        long[] expires = new long[streams];
+        List<CompletableFuture<HttpResponse>> opened = new ArrayList<>(streams);
+        List<CompletableFuture<Long>> ended = new ArrayList<>(streams);
+        for (int i = 0; i < streams; i++) {
+            expires[i] = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(sessionSeconds);
+            String token = benchmark.getSessionManager().clientSessionManager().encode("user-" + i);
+            tokens.add(token);
+            CompletableFuture<HttpResponse> response = Source.single(HttpRequest.GET("/events").addHeader(RawHeader.create(header, token)))
+                .via(routes)
+                .runWith(Sink.head(), materializer)
+                .toCompletableFuture();
+            opened.add(response);
+            ended.add(response
+                .thenCompose(r -> r.entity().getDataBytes().runWith(Sink.ignore(), materializer))
+                .thenApply(done -> System.currentTimeMillis())
+                .toCompletableFuture());
+        }
+        CompletableFuture.allOf(opened.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        for (CompletableFuture<HttpResponse> response : opened) {
+            if (response.join().status().intValue() != 200)
+                throw new IllegalStateException("A stream was not opened: " + response.join().status());
+        }
+        System.out.println(String.format("Opened %,d streams in %,d ms", streams, System.currentTimeMillis() - started));
+        System.out.println(String.format("  heap: %,d bytes per open stream, threads: %d more",
+            (usedHeap() - heapBefore) / streams, ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore));
+
+        long revokedAt = System.currentTimeMillis();
+        List<CompletableFuture<Long>> revoked = new ArrayList<>();
+        for (int i = 0; i < streams; i += REVOKED_EVERY) {
+            benchmark.revocations.revoke(tokens.get(i), expires[i]);
+            revoked.add(ended.get(i));
+        }
+        CompletableFuture.allOf(revoked.toArray(new CompletableFuture[0])).get(CHECK_SECONDS + 30, TimeUnit.SECONDS);
+        System.out.println(String.format("Revoked %,d sessions: their streams ended after at most %,d ms (checked every %d s)",
+            revoked.size(), revoked.stream().mapToLong(CompletableFuture::join).max().orElse(0) - revokedAt, CHECK_SECONDS));
+
+        CompletableFuture.allOf(ended.toArray(new CompletableFuture[0])).get(sessionSeconds + 30, TimeUnit.SECONDS);
+        long expiryLag = 0;
+        for (int i = 0; i < streams; i++) {
+            if (i % REVOKED_EVERY != 0)
+                expiryLag = Math.max(expiryLag, ended.get(i).join() - expires[i]);
+        }
+        System.out.println(String.format("The other sessions expired: their streams ended at most %,d ms after the expiry", expiryLag));
+        System.out.println(benchmark.sessionStreams);
+        system.terminate();
+    }
+
+    private Route routes() {
+        return
+            path("events", () ->
+                get(() ->
+                    sessionStreams.eventStream(session ->
+                        Source.<ServerSentEvent>maybe()
+                    )
+                )
+            );
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,244 @@
+package session.continuity;
+
+import akka.dispatch.ExecutionContexts;
+import akka.dispatch.Futures;
+import akka.dispatch.OnComplete;
+import com.softwaremill.session.RefreshTokenData;
+import com.softwaremill.session.RefreshTokenLookupResult;
+import com.softwaremill.session.RefreshTokenStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Function0;
+import scala.Option;
+import scala.concurrent.Future;
+import scala.concurrent.Promise;
+import scala.concurrent.duration.Duration;
+import scala.runtime.BoxedUnit;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A RefreshTokenStorage which hands the lookups, stores and removes of concurrent requests to a {@link RefreshTokenBatchStore}
+ * in batches, instead of one call per operation.
+ * <p>
+ * A single batcher thread waits for an operation, then collects more until window has passed since the first one, or until maxBatch
+ * of them are queued. The batch is handed to the backend in arrival order, without waiting for the previous batch to complete, and
+ * the Future of each operation is completed with its own result when the batch completes. A failed batch fails all its operations.
+ * <p>
+ * The window adds at most its length to the latency of an operation, and saves a round trip for every operation beyond the first in
+ * a batch; with a single request at a time, it only adds latency.
+ */
+public class BatchingRefreshTokenStorage<T> implements RefreshTokenStorage<T>, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchingRefreshTokenStorage.class);
+
+    private static final Pending<?> CLOSE = new Pending<>(null, null, null);
+
+    private final RefreshTokenBatchStore<T> store;
+    private final int maxBatch;
+    private final long windowNanos;
+
+    private final LinkedBlockingQueue<Pending<T>> queue = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(daemon("refresh-token-scheduler"));
+    private final Thread batcher;
+    // enqueue checks and adds under the read lock, close() closes under the write lock, so no operation is queued after CLOSE
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder operations = new LongAdder();
+
+    public BatchingRefreshTokenStorage(RefreshTokenBatchStore<T> store, int maxBatch, long window, TimeUnit unit) {
+        this.store = store;
+        this.maxBatch = maxBatch;
+        this.windowNanos = unit.toNanos(window);
+        this.batcher = daemon("refresh-token-batcher").newThread(this::batchLoop);
+        this.batcher.start();
+    }
+
+    @Override
+    public Future<Option<RefreshTokenLookupResult<T>>> lookup(String selector) {
+        Promise<Option<RefreshTokenLookupResult<T>>> found = Futures.promise();
+        return enqueue(new Pending<>(RefreshTokenBatchStore.Operation.lookup(selector), found, null), found);
+    }
+
+    @Override
+    public Future<BoxedUnit> store(RefreshTokenData<T> data) {
+        Promise<BoxedUnit> done = Futures.promise();
+        return enqueue(new Pending<>(RefreshTokenBatchStore.Operation.store(data), null, done), done);
+    }
+
+    @Override
+    public Future<BoxedUnit> remove(String selector) {
+        Promise<BoxedUnit> done = Futures.promise();
+        return enqueue(new Pending<>(RefreshTokenBatchStore.Operation.remove(selector), null, done), done);
+    }
+
+    @Override
+    public <S> void schedule(Duration after, Function0<Future<S>> op) {
+        scheduler.schedule(op::apply, after.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public long batchCount() {
+        return batches.sum();
+    }
+
+    public long operationCount() {
+        return operations.sum();
+    }
+
+    /**
+     * Stops accepting operations, and hands the queued ones to the backend.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void close() {
+        closing.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            queue.add((Pending<T>) CLOSE);
+        } finally {
+            closing.writeLock().unlock();
+        }
+        try {
+            batcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        long batchCount = batchCount();
+        return String.format("%,d operations in %,d batches (%.1f per batch)",
+            operationCount(), batchCount, batchCount == 0 ? 0 : (double) operationCount() / batchCount);
+    }
+
+    private <R> Future<R> enqueue(Pending<T> pending, Promise<R> promise) {
+        closing.readLock().lock();
+        try {
+            if (closed)
+                return Futures.failed(new IllegalStateException("The refresh token storage is closed"));
+            queue.add(pending);
+        } finally {
+            closing.readLock().unlock();
+        }
+        return promise.future();
+    }
+
+    /**
+     * Runs on the batcher thread: waits for an operation, then collects more until the batch is full or the window has passed.
+     */
+    private void batchLoop() {
+        boolean running = true;
+        while (running) {
+            List<Pending<T>> batch = new ArrayList<>(maxBatch);
+            try {
+                Pending<T> next = queue.take();
+                long deadline = System.nanoTime() + windowNanos;
+                while (next != null) {
+                    if (next == CLOSE) {
+                        running = false;
+                        break;
+                    }
+                    batch.add(next);
+                    if (batch.size() >= maxBatch)
+                        break;
+                    next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            if (!batch.isEmpty())
+                execute(batch);
+        }
+        // operations left in the queue when the batcher was interrupted
+        for (Pending<T> pending = queue.poll(); pending != null; pending = queue.poll()) {
+            if (pending != CLOSE)
+                pending.fail(new IllegalStateException("The refresh token storage is closed"));
+        }
+    }
+
+    private void execute(List<Pending<T>> batch) {
+        batches.increment();
+        operations.add(batch.size());
+        List<RefreshTokenBatchStore.Operation<T>> ops = new ArrayList<>(batch.size());
+        for (Pending<T> pending : batch) {
+            ops.add(pending.operation);
+        }
+        Future<List<Option<RefreshTokenLookupResult<T>>>> results;
+        try {
+            results = store.execute(ops);
+        } catch (RuntimeException e) {
+            results = Futures.failed(e);
+        }
+        results.onComplete(new OnComplete<List<Option<RefreshTokenLookupResult<T>>>>() {
+            @Override
+            public void onComplete(Throwable failure, List<Option<RefreshTokenLookupResult<T>>> found) {
+                if (failure == null && found.size() != batch.size())
+                    failure = new IllegalStateException("Expected " + batch.size() + " results, got " + found.size());
+                if (failure != null) {
+                    LOGGER.error("Batch of {} refresh token operations failed", batch.size(), failure);
+                    for (Pending<T> pending : batch) {
+                        pending.fail(failure);
+                    }
+                    return;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).complete(found.get(i));
+                }
+            }
+        }, ExecutionContexts.sameThreadExecutionContext());
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A queued operation, with the promise of a lookup or of a mutation.
+     */
+    private static final class Pending<T> {
+
+        private final RefreshTokenBatchStore.Operation<T> operation;
+        private final Promise<Option<RefreshTokenLookupResult<T>>> found;
+        private final Promise<BoxedUnit> done;
+
+        Pending(RefreshTokenBatchStore.Operation<T> operation, Promise<Option<RefreshTokenLookupResult<T>>> found, Promise<BoxedUnit> done) {
+            this.operation = operation;
+            this.found = found;
+            this.done = done;
+        }
+
+        void complete(Option<RefreshTokenLookupResult<T>> result) {
+            if (found != null)
+                found.success(result == null ? Option.<RefreshTokenLookupResult<T>>empty() : result);
+            else
+                done.success(BoxedUnit.UNIT);
+        }
+
+        void fail(Throwable failure) {
+            if (found != null)
+                found.failure(failure);
+            else
+                done.failure(failure);
+        }
+    }
+}
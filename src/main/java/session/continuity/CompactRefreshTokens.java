@@ -0,0 +1,327 @@
+package session.continuity;
+
+import com.softwaremill.session.RefreshTokenData;
+import com.softwaremill.session.RefreshTokenLookupResult;
+import com.softwaremill.session.SessionSerializer;
+import scala.compat.java8.JFunction0;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An in-memory table of refresh tokens, which keeps each token as a single byte array:
+ * <pre>
+ *   | expires (long) | selector length | hash encoding | hash length | selector | token hash | serialized session |
+ * </pre>
+ * A map of String fields costs a map node, a value object and three Strings (each a String object and a char array) per token, so
+ * a few hundred bytes. Here the selector and the session are stored as UTF-8 bytes, and a hex token hash (like the SHA-256 hashes
+ * of Refreshable) as the raw bytes it spells, half its length. The tables are open-addressing arrays of the records and the hashes
+ * of their selectors, split into segments which are locked separately. Records are never changed once stored, so they are decoded
+ * outside of the lock, and the session is only deserialized when a lookup result creates it.
+ * <p>
+ * Selectors and token hashes may be up to 255 bytes long (in UTF-8, or in raw bytes for hex hashes).
+ */
+public class CompactRefreshTokens<T> implements RefreshTokenScan<T> {
+
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final int HEADER = 11;
+    private static final int SELECTOR_LENGTH = 8;
+    private static final int HASH_ENCODING = 9;
+    private static final int HASH_LENGTH = 10;
+
+    private static final byte RAW = 0;
+    private static final byte LOWER_HEX = 1;
+    private static final byte UPPER_HEX = 2;
+
+    private static final char[] LOWER_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char[] UPPER_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final SessionSerializer<T, String> serializer;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public CompactRefreshTokens(SessionSerializer<T, String> serializer) {
+        this.serializer = serializer;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * The token of the selector, or null if there is none.
+     */
+    public RefreshTokenLookupResult<T> lookup(String selector) {
+        byte[] key = selector.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key, 0, key.length);
+        byte[] record = segment(hash).get(key, hash);
+        if (record == null)
+            return null;
+        return new RefreshTokenLookupResult<>(tokenHash(record), expires(record), (JFunction0<T>) () -> session(record));
+    }
+
+    /**
+     * Stores the token, replacing the token of the same selector, if any.
+     */
+    public void store(RefreshTokenData<T> data) {
+        byte[] selector = data.selector().getBytes(StandardCharsets.UTF_8);
+        String tokenHash = data.tokenHash();
+        byte encoding = hashEncoding(tokenHash);
+        byte[] hash = encoding == RAW ? tokenHash.getBytes(StandardCharsets.UTF_8) : null;
+        int hashLength = encoding == RAW ? hash.length : tokenHash.length() / 2;
+        byte[] session = serializer.serialize(data.forSession()).getBytes(StandardCharsets.UTF_8);
+        if (selector.length > 255 || hashLength > 255)
+            throw new IllegalArgumentException("The selector and the token hash may be up to 255 bytes long");
+
+        byte[] record = new byte[HEADER + selector.length + hashLength + session.length];
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putLong(data.expires()).put((byte) selector.length).put(encoding).put((byte) hashLength).put(selector);
+        if (encoding == RAW) {
+            buffer.put(hash);
+        } else {
+            for (int i = 0; i < tokenHash.length(); i += 2) {
+                buffer.put((byte) (Character.digit(tokenHash.charAt(i), 16) << 4 | Character.digit(tokenHash.charAt(i + 1), 16)));
+            }
+        }
+        buffer.put(session);
+        int selectorHash = hash(record, HEADER, selector.length);
+        segment(selectorHash).put(record, selectorHash);
+    }
+
+    public void remove(String selector) {
+        byte[] key = selector.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key, 0, key.length);
+        segment(hash).remove(key, hash);
+    }
+
+    /**
+     * Removes the tokens which expired before now, and returns how many.
+     */
+    public int removeExpired(long now) {
+        int removed = 0;
+        for (Segment segment : segments) {
+            removed += segment.removeExpired(now);
+        }
+        return removed;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Iterates over the tokens one segment at a time; a segment is copied when the iterator reaches it.
+     */
+    @Override
+    public Iterator<RefreshTokenData<T>> scan() {
+        return new Iterator<RefreshTokenData<T>>() {
+
+            private int segment;
+            private byte[][] records = new byte[0][];
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == records.length && segment < SEGMENTS) {
+                    records = segments[segment++].records();
+                    next = 0;
+                }
+                return next < records.length;
+            }
+
+            @Override
+            public RefreshTokenData<T> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                byte[] record = records[next];
+                records[next++] = null;
+                return new RefreshTokenData<>(session(record), selector(record), tokenHash(record), expires(record));
+            }
+        };
+    }
+
+    private Segment segment(int hash) {
+        // the slots within a segment are picked by the low bits of the hash, so the segment by the high bits of a remix
+        return segments[(hash * 0x9E3779B9) >>> (Integer.SIZE - Integer.numberOfTrailingZeros(SEGMENTS))];
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static byte hashEncoding(String tokenHash) {
+        if (tokenHash.isEmpty() || tokenHash.length() % 2 != 0)
+            return RAW;
+        boolean lower = true;
+        boolean upper = true;
+        for (int i = 0; i < tokenHash.length(); i++) {
+            char c = tokenHash.charAt(i);
+            if (c >= 'a' && c <= 'f') {
+                upper = false;
+            } else if (c >= 'A' && c <= 'F') {
+                lower = false;
+            } else if (c < '0' || c > '9') {
+                return RAW;
+            }
+        }
+        return lower ? LOWER_HEX : upper ? UPPER_HEX : RAW;
+    }
+
+    private static long expires(byte[] record) {
+        return ByteBuffer.wrap(record).getLong(0);
+    }
+
+    private static String selector(byte[] record) {
+        return new String(record, HEADER, record[SELECTOR_LENGTH] & 0xff, StandardCharsets.UTF_8);
+    }
+
+    private static String tokenHash(byte[] record) {
+        int offset = HEADER + (record[SELECTOR_LENGTH] & 0xff);
+        int length = record[HASH_LENGTH] & 0xff;
+        if (record[HASH_ENCODING] == RAW)
+            return new String(record, offset, length, StandardCharsets.UTF_8);
+        char[] digits = record[HASH_ENCODING] == LOWER_HEX ? LOWER_DIGITS : UPPER_DIGITS;
+        char[] hex = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            hex[2 * i] = digits[(record[offset + i] >> 4) & 0xf];
+            hex[2 * i + 1] = digits[record[offset + i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private T session(byte[] record) {
+        int offset = HEADER + (record[SELECTOR_LENGTH] & 0xff) + (record[HASH_LENGTH] & 0xff);
+        return serializer.deserialize(new String(record, offset, record.length - offset, StandardCharsets.UTF_8)).get();
+    }
+
+    private static boolean selectorEquals(byte[] record, byte[] selector, int offset) {
+        int length = record[SELECTOR_LENGTH] & 0xff;
+        if (length != (offset == 0 ? selector.length : selector[SELECTOR_LENGTH] & 0xff))
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (record[HEADER + i] != selector[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * A linear-probing table; a slot is empty when its record is null. Removals shift the following records back instead of
+     * leaving tombstones.
+     */
+    private static final class Segment {
+
+        private int[] hashes = new int[INITIAL_CAPACITY];
+        private byte[][] records = new byte[INITIAL_CAPACITY][];
+        private int size;
+
+        synchronized byte[] get(byte[] selector, int hash) {
+            int slot = find(selector, 0, hash);
+            return slot < 0 ? null : records[slot];
+        }
+
+        synchronized void put(byte[] record, int hash) {
+            int slot = find(record, HEADER, hash);
+            if (slot >= 0) {
+                records[slot] = record;
+                return;
+            }
+            if ((size + 1) * 4 > records.length * 3)
+                resize(records.length * 2);
+            insert(record, hash);
+            size++;
+        }
+
+        synchronized void remove(byte[] selector, int hash) {
+            int slot = find(selector, 0, hash);
+            if (slot >= 0)
+                delete(slot);
+        }
+
+        synchronized int removeExpired(long now) {
+            int before = size;
+            for (int slot = 0; slot < records.length; ) {
+                // a deletion shifts a later record into the slot, so the slot is checked again
+                if (records[slot] != null && expires(records[slot]) < now) {
+                    delete(slot);
+                } else {
+                    slot++;
+                }
+            }
+            return before - size;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized byte[][] records() {
+            byte[][] copy = new byte[size][];
+            int i = 0;
+            for (byte[] record : records) {
+                if (record != null)
+                    copy[i++] = record;
+            }
+            return copy;
+        }
+
+        /**
+         * The slot of the selector, which is either a key (offset 0) or the selector within a record (offset HEADER), or -1.
+         */
+        private int find(byte[] selector, int offset, int hash) {
+            int mask = records.length - 1;
+            for (int slot = hash & mask; records[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && selectorEquals(records[slot], selector, offset))
+                    return slot;
+            }
+            return -1;
+        }
+
+        private void insert(byte[] record, int hash) {
+            int mask = records.length - 1;
+            int slot = hash & mask;
+            while (records[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            records[slot] = record;
+            hashes[slot] = hash;
+        }
+
+        private void delete(int slot) {
+            int mask = records.length - 1;
+            int hole = slot;
+            for (int next = (slot + 1) & mask; records[next] != null; next = (next + 1) & mask) {
+                // a record may move back into the hole unless its home slot lies after the hole
+                if (((next - hashes[next]) & mask) >= ((next - hole) & mask)) {
+                    records[hole] = records[next];
+                    hashes[hole] = hashes[next];
+                    hole = next;
+                }
+            }
+            records[hole] = null;
+            hashes[hole] = 0;
+            size--;
+        }
+
+        private void resize(int capacity) {
+            byte[][] oldRecords = records;
+            int[] oldHashes = hashes;
+            records = new byte[capacity][];
+            hashes = new int[capacity];
+            for (int i = 0; i < oldRecords.length; i++) {
+                if (oldRecords[i] != null)
+                    insert(oldRecords[i], oldHashes[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package session.continuity;
+
+import akka.dispatch.Futures;
+import com.softwaremill.session.RefreshTokenData;
+import com.softwaremill.session.RefreshTokenLookupResult;
+import com.softwaremill.session.RefreshTokenStorage;
+import com.softwaremill.session.SessionSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Function0;
+import scala.Option;
+import scala.concurrent.Future;
+import scala.concurrent.Promise;
+import scala.concurrent.duration.Duration;
+import scala.runtime.BoxedUnit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A durable refresh token storage. Reads are served from memory only, while every store and remove is also appended to a journal file.
+ * <p>
+ * Appends are group-committed: a single writer thread collects the mutations queued within flushInterval (or until maxBatch of them
+ * are queued), writes them with one call and forces them to disk with one fsync. The memory state is updated right away, and the
+ * Future returned by store and remove completes once the mutation is durable. On startup the journal is replayed, and rewritten with the
+ * live, unexpired tokens only.
+ * <p>
+ * Each journal record is: | payload length (int) | CRC32 of the payload (int) | payload |. A torn or corrupt record at the end of
+ * the journal (e.g. after a crash during a write) ends the replay; the journal is then kept as a .corrupt copy before it is compacted,
+ * so the records after it are not lost for good. A failed write truncates the journal back to its last committed size, so that later
+ * records are never appended after torn bytes.
+ * <p>
+ * The memory state and the queue of a selector are updated under the same lock (one of {@value #LOCK_STRIPES} stripes), so the
+ * journal sees the mutations of a selector in the same order as the memory state.
+ * <p>
+ * The tokens in memory are kept in {@link CompactRefreshTokens}, one byte array per token.
+ */
+public class JournaledRefreshTokenStorage<T> implements RefreshTokenStorage<T>, RefreshTokenScan<T>, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JournaledRefreshTokenStorage.class);
+
+    private static final byte STORE = 1;
+    private static final byte REMOVE = 2;
+
+    private static final Mutation CLOSE = new Mutation(new byte[0]);
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path journal;
+    private final SessionSerializer<T, String> serializer;
+    private final int maxBatch;
+    private final long flushIntervalNanos;
+
+    private final CompactRefreshTokens<T> entries;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final LinkedBlockingQueue<Mutation> queue = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(daemon("refresh-token-scheduler"));
+    private final Thread writer;
+    private final FileChannel channel;
+    // store and remove check and enqueue under the read lock, close() closes under the write lock, so no mutation is queued after CLOSE
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private boolean closed;
+    // only used by the writer thread
+    private long committedSize;
+    private IOException broken;
+
+    public JournaledRefreshTokenStorage(Path journal, SessionSerializer<T, String> serializer, int maxBatch, long flushInterval, TimeUnit unit) {
+        this.journal = journal;
+        this.serializer = serializer;
+        this.maxBatch = maxBatch;
+        this.flushIntervalNanos = unit.toNanos(flushInterval);
+        this.entries = new CompactRefreshTokens<>(serializer);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        try {
+            recover();
+            this.channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.committedSize = channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the refresh token journal " + journal, e);
+        }
+        this.writer = daemon("refresh-token-journal").newThread(this::writeLoop);
+        this.writer.start();
+    }
+
+    @Override
+    public Future<Option<RefreshTokenLookupResult<T>>> lookup(String selector) {
+        return Futures.successful(Option.apply(entries.lookup(selector)));
+    }
+
+    @Override
+    public Future<BoxedUnit> store(RefreshTokenData<T> data) {
+        byte[] record;
+        try {
+            record = encodeStore(data);
+        } catch (UncheckedIOException e) {
+            // e.g. a session of more than 64KB, which writeUTF cannot write
+            return Futures.failed(e.getCause());
+        }
+        closing.readLock().lock();
+        try {
+            synchronized (lock(data.selector())) {
+                if (closed)
+                    return closedFailure();
+                entries.store(data);
+                return append(record);
+            }
+        } finally {
+            closing.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Future<BoxedUnit> remove(String selector) {
+        byte[] record;
+        try {
+            record = encodeRemove(selector);
+        } catch (UncheckedIOException e) {
+            return Futures.failed(e.getCause());
+        }
+        closing.readLock().lock();
+        try {
+            synchronized (lock(selector)) {
+                if (closed)
+                    return closedFailure();
+                entries.remove(selector);
+                return append(record);
+            }
+        } finally {
+            closing.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <S> void schedule(Duration after, Function0<Future<S>> op) {
+        scheduler.schedule(op::apply, after.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Iterator<RefreshTokenData<T>> scan() {
+        return entries.scan();
+    }
+
+    /**
+     * Stops accepting mutations, commits the queued ones and closes the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        closing.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            queue.add(CLOSE);
+        } finally {
+            closing.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdown();
+        channel.close();
+    }
+
+    private Object lock(String selector) {
+        return locks[(selector.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    private static Future<BoxedUnit> closedFailure() {
+        return Futures.failed(new IllegalStateException("The refresh token journal is closed"));
+    }
+
+    private Future<BoxedUnit> append(byte[] record) {
+        Mutation mutation = new Mutation(record);
+        queue.add(mutation);
+        return mutation.done.future();
+    }
+
+    /**
+     * Runs on the writer thread: waits for a mutation, then collects more until the batch is full or flushInterval has passed.
+     * The writer is never interrupted, as that would close the FileChannel.
+     */
+    private void writeLoop() {
+        List<Mutation> batch = new ArrayList<>(maxBatch);
+        boolean running = true;
+        while (running) {
+            try {
+                Mutation next = queue.take();
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (next != null) {
+                    if (next == CLOSE) {
+                        running = false;
+                        break;
+                    }
+                    batch.add(next);
+                    if (batch.size() >= maxBatch)
+                        break;
+                    next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+        // mutations left in the queue when the writer was interrupted
+        for (Mutation mutation = queue.poll(); mutation != null; mutation = queue.poll()) {
+            if (mutation != CLOSE)
+                mutation.done.failure(new IllegalStateException("The refresh token journal is closed"));
+        }
+    }
+
+    private void commit(List<Mutation> batch) {
+        int size = 0;
+        for (Mutation mutation : batch) {
+            size += mutation.record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Mutation mutation : batch) {
+            buffer.put(mutation.record);
+        }
+        buffer.flip();
+        if (broken != null) {
+            for (Mutation mutation : batch) {
+                mutation.done.failure(broken);
+            }
+            return;
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            committedSize += size;
+            LOGGER.debug("Committed {} refresh token mutations ({} bytes)", batch.size(), size);
+            for (Mutation mutation : batch) {
+                mutation.done.success(BoxedUnit.UNIT);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not write {} refresh token mutations", batch.size(), e);
+            for (Mutation mutation : batch) {
+                mutation.done.failure(e);
+            }
+            rollBack();
+        }
+    }
+
+    /**
+     * Truncates the journal back to the last committed size after a failed write, so that no record follows torn bytes. If even
+     * that fails, the journal stops taking writes, as anything appended after the torn bytes would be lost on the next replay.
+     */
+    private void rollBack() {
+        try {
+            channel.truncate(committedSize);
+            channel.force(false);
+        } catch (IOException e) {
+            LOGGER.error("Could not truncate the refresh token journal {} back to {} bytes, no more mutations are written", journal, committedSize, e);
+            broken = e;
+        }
+    }
+
+    /**
+     * Replays the journal into memory and rewrites it with the unexpired tokens only.
+     */
+    private void recover() throws IOException {
+        if (!Files.exists(journal))
+            return;
+        long now = System.currentTimeMillis();
+        long journalSize = Files.size(journal);
+        long replayed = 0;
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(journal))) {
+            while (true) {
+                byte[] payload = readRecord(in);
+                if (payload == null)
+                    break;
+                apply(payload);
+                replayed += 8 + payload.length;
+                records++;
+            }
+        }
+        if (replayed < journalSize) {
+            Path corrupt = journal.resolveSibling(journal.getFileName() + ".corrupt");
+            Files.copy(journal, corrupt, StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.warn("The replay of {} stopped at a torn or corrupt record at offset {}; the {} bytes after it are ignored, the journal is kept as {}",
+                journal, replayed, journalSize - replayed, corrupt);
+        }
+        entries.removeExpired(now);
+
+        Path compacted = journal.resolveSibling(journal.getFileName() + ".compacting");
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Iterator<RefreshTokenData<T>> tokens = entries.scan(); tokens.hasNext(); ) {
+                ByteBuffer record = ByteBuffer.wrap(encodeStore(tokens.next()));
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+            out.force(false);
+        }
+        Files.move(compacted, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Recovered {} refresh tokens from {} journal records in {}", entries.size(), records, journal);
+    }
+
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int crc = in.readInt();
+            if (length < 0 || length > 1 << 20)
+                return null;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 checksum = new CRC32();
+            checksum.update(payload);
+            return (int) checksum.getValue() == crc ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        String selector = in.readUTF();
+        if (op == STORE) {
+            String tokenHash = in.readUTF();
+            long expires = in.readLong();
+            T session = serializer.deserialize(in.readUTF()).get();
+            entries.store(new RefreshTokenData<>(session, selector, tokenHash, expires));
+        } else if (op == REMOVE) {
+            entries.remove(selector);
+        }
+    }
+
+    private byte[] encodeStore(RefreshTokenData<T> data) {
+        return record(out -> {
+            out.writeByte(STORE);
+            out.writeUTF(data.selector());
+            out.writeUTF(data.tokenHash());
+            out.writeLong(data.expires());
+            out.writeUTF(serializer.serialize(data.forSession()));
+        });
+    }
+
+    private byte[] encodeRemove(String selector) {
+        return record(out -> {
+            out.writeByte(REMOVE);
+            out.writeUTF(selector);
+        });
+    }
+
+    private static byte[] record(PayloadWriter writer) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+            writer.write(new DataOutputStream(payload));
+            byte[] bytes = payload.toByteArray();
+            CRC32 checksum = new CRC32();
+            checksum.update(bytes);
+            ByteBuffer record = ByteBuffer.allocate(8 + bytes.length);
+            record.putInt(bytes.length).putInt((int) checksum.getValue()).put(bytes);
+            return record.array();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static final class Mutation {
+
+        private final byte[] record;
+        private final Promise<BoxedUnit> done = Futures.promise();
+
+        Mutation(byte[] record) {
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package session.continuity;
+
+import akka.http.javadsl.server.Route;
+import com.softwaremill.session.Crypto;
+import com.softwaremill.session.OneOff;
+import com.softwaremill.session.RefreshTokenLookupResult;
+import com.softwaremill.session.RefreshTokenStorage;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionManager;
+import com.softwaremill.session.SessionResult;
+import com.softwaremill.session.SetSessionTransport;
+import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
+import scala.compat.java8.FutureConverters;
+import session.transport.TokenReader;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Reuses a refresh token until a share of its lifetime has passed, instead of rotating it on every refresh.
+ * <p>
+ * The Refreshable continuity stores a new refresh token, and later removes the used one, whenever a session is created from a refresh
+ * token, so the storage writes follow the session expiries. This wraps a requiredSession directive: a request without a valid
+ * session, but with a refresh token younger than rotateAfterShare of the refresh token max-age, only gets a new session (set
+ * like a OneOff session), and keeps its refresh token. Its age is derived from its expiry, as the storage keeps no creation time.
+ * Older, unknown, expired and forged refresh tokens go through the wrapped directive, which rotates, rejects or removes them as before.
+ * <p>
+ * A reused token can be replayed for longer, up to rotateAfterShare of its lifetime; a share of 0 rotates on every refresh.
+ * Every reuse saves a store and a remove; {@link #report()} serves the counts.
+ * <p>
+ * The session token is decoded once per request. Only a request which falls back to its refresh token goes through admitRefresh,
+ * e.g. an AdmissionControl, before the refresh token is looked up, so requests with a valid session never take a permit.
+ */
+public class LazyRotation<T> extends HttpSessionAwareDirectives<T> {
+
+    private static final char SEPARATOR = ':';
+
+    private final RefreshTokenStorage<T> storage;
+    private final OneOff<T> oneOffSession;
+    private final SetSessionTransport transport;
+    private final long rotateAfterMillis;
+    private final TokenReader tokens;
+    private final Function<Supplier<Route>, Route> admitRefresh;
+
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder rotated = new LongAdder();
+
+    /**
+     * @param rotateAfterShare the share of the refresh token max-age after which a refresh token is rotated, from 0 to 1
+     */
+    public LazyRotation(SessionManager<T> manager, RefreshTokenStorage<T> storage, SetSessionTransport transport, double rotateAfterShare) {
+        this(manager, storage, transport, rotateAfterShare, Supplier::get);
+    }
+
+    /**
+     * @param rotateAfterShare the share of the refresh token max-age after which a refresh token is rotated, from 0 to 1
+     * @param admitRefresh     wraps the refreshes, e.g. {@code admission::admit}
+     */
+    public LazyRotation(SessionManager<T> manager, RefreshTokenStorage<T> storage, SetSessionTransport transport, double rotateAfterShare,
+                        Function<Supplier<Route>, Route> admitRefresh) {
+        super(manager);
+        if (rotateAfterShare < 0 || rotateAfterShare > 1)
+            throw new IllegalArgumentException("The rotation share must be between 0 and 1, got " + rotateAfterShare);
+        SessionConfig config = manager.config();
+        this.storage = storage;
+        this.oneOffSession = new OneOff<>(manager);
+        this.transport = transport;
+        this.rotateAfterMillis = (long) (config.refreshTokenMaxAgeSeconds() * 1000L * rotateAfterShare);
+        this.tokens = new TokenReader(config, transport);
+        this.admitRefresh = admitRefresh;
+    }
+
+    /**
+     * Wraps a requiredSession directive, e.g. {@code requiredSession(next -> requiredSession(refreshable, transport, next), session -> ...)}.
+     */
+    @SuppressWarnings("unchecked")
+    public Route requiredSession(Function<Function<T, Route>, Route> directive, Function<T, Route> inner) {
+        return
+            extractRequest(request -> {
+                Optional<String> refreshToken = tokens.refreshToken(request);
+                if (!refreshToken.isPresent())
+                    return directive.apply(inner);
+                Optional<String> sessionToken = tokens.session(request);
+                if (sessionToken.isPresent()) {
+                    SessionResult<T> session = getSessionManager().clientSessionManager().decode(sessionToken.get());
+                    if (session instanceof SessionResult.Decoded)
+                        return inner.apply(((SessionResult.Decoded<T>) session).session());
+                    // e.g. a legacy session, which the wrapped directive accepts and sets anew, without a refresh
+                    if (session instanceof SessionResult.SessionValue)
+                        return directive.apply(inner);
+                }
+                return admitRefresh.apply(() ->
+                    onSuccess(() -> reuse(refreshToken.get()), reusable ->
+                        reusable.isPresent()
+                            ? setSession(oneOffSession, transport, reusable.get(), () -> inner.apply(reusable.get()))
+                            : directive.apply(inner)
+                    )
+                );
+            });
+    }
+
+    /**
+     * Serves the counts under GET rotation, e.g. within the api path prefix.
+     */
+    public Route report() {
+        return
+            path("rotation", () ->
+                get(() ->
+                    complete(toString() + "\n")
+                )
+            );
+    }
+
+    public long reusedCount() {
+        return reused.sum();
+    }
+
+    public long rotatedCount() {
+        return rotated.sum();
+    }
+
+    /**
+     * The stores and removes saved by the reuses: one of each per reuse.
+     */
+    public long savedWrites() {
+        return 2 * reusedCount();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d refresh tokens reused, %,d rotated, %,d storage writes saved", reusedCount(), rotatedCount(), savedWrites());
+    }
+
+    /**
+     * Looks the refresh token up, and completes with the session if the token is valid and young enough to be reused.
+     */
+    private CompletionStage<Optional<T>> reuse(String refreshToken) {
+        int separator = refreshToken.indexOf(SEPARATOR);
+        if (separator <= 0)
+            return CompletableFuture.completedFuture(Optional.empty());
+        String selector = refreshToken.substring(0, separator);
+        String token = refreshToken.substring(separator + 1);
+        return FutureConverters.toJava(storage.lookup(selector)).thenApply(found -> {
+            if (found.isEmpty())
+                return Optional.<T>empty();
+            RefreshTokenLookupResult<T> lookup = found.get();
+            long now = System.currentTimeMillis();
+            if (lookup.expires() < now || !MessageDigest.isEqual(
+                lookup.tokenHash().getBytes(StandardCharsets.US_ASCII),
+                Crypto.hash_SHA256(token).getBytes(StandardCharsets.US_ASCII)
+            ))
+                return Optional.<T>empty();
+            long issued = lookup.expires() - getSessionManager().config().refreshTokenMaxAgeSeconds() * 1000L;
+            if (now - issued >= rotateAfterMillis) {
+                rotated.increment();
+                return Optional.<T>empty();
+            }
+            reused.increment();
+            return Optional.of(lookup.createSession().apply());
+        });
+    }
+}
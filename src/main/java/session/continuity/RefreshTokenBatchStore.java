@@ -0,0 +1,67 @@
+package session.continuity;
+
+import com.softwaremill.session.RefreshTokenData;
+import com.softwaremill.session.RefreshTokenLookupResult;
+import scala.Option;
+import scala.concurrent.Future;
+
+import java.util.List;
+
+/**
+ * A refresh token backend which takes lookups, stores and removes in batches, e.g. a remote store with a pipelined or
+ * multi-key request, so that a batch costs a single round trip. See {@link BatchingRefreshTokenStorage}.
+ */
+public interface RefreshTokenBatchStore<T> {
+
+    /**
+     * Executes the operations in the given order, and completes with one result per operation: the lookup result for a lookup,
+     * and an empty Option for a store or remove. If the Future fails, all operations of the batch fail.
+     * <p>
+     * Batches are executed one after the other, and the next batch may be handed over before the previous Future completed.
+     */
+    Future<List<Option<RefreshTokenLookupResult<T>>>> execute(List<Operation<T>> operations);
+
+    final class Operation<T> {
+
+        public enum Kind {
+            LOOKUP, STORE, REMOVE
+        }
+
+        private final Kind kind;
+        private final String selector;
+        private final RefreshTokenData<T> data;
+
+        private Operation(Kind kind, String selector, RefreshTokenData<T> data) {
+            this.kind = kind;
+            this.selector = selector;
+            this.data = data;
+        }
+
+        public static <T> Operation<T> lookup(String selector) {
+            return new Operation<>(Kind.LOOKUP, selector, null);
+        }
+
+        public static <T> Operation<T> store(RefreshTokenData<T> data) {
+            return new Operation<>(Kind.STORE, data.selector(), data);
+        }
+
+        public static <T> Operation<T> remove(String selector) {
+            return new Operation<>(Kind.REMOVE, selector, null);
+        }
+
+        public Kind kind() {
+            return kind;
+        }
+
+        public String selector() {
+            return selector;
+        }
+
+        /**
+         * The stored token, for a store; null otherwise.
+         */
+        public RefreshTokenData<T> data() {
+            return data;
+        }
+    }
+}
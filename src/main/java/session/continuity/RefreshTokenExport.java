@@ -0,0 +1,108 @@
+package session.continuity;
+
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpCharsets;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.StringUnmarshallers;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.softwaremill.session.RefreshTokenData;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Streams the metadata of the active refresh tokens of a {@link RefreshTokenScan} as newline-delimited JSON, one token per line:
+ * <pre>
+ *   {"selector":"...","user":"...","expires":1505457571316}
+ * </pre>
+ * The token hash and the session itself are never written. The tokens can be filtered by user, and by an expiry range in millis:
+ * <pre>
+ *   GET refresh_tokens?user=my_login&amp;expires_from=1505457571316&amp;expires_to=1506457571316
+ * </pre>
+ * The storage is scanned as the response is sent, with the backpressure of the connection: {@value #LINES_PER_CHUNK} lines are
+ * written at a time, and no more tokens are read until they are sent, so millions of tokens never sit on the heap at once.
+ * The user of each token is read once, after the expiry filter. The route exposes who is logged in, so it belongs behind an admin
+ * authentication, or on an internal port only.
+ */
+public class RefreshTokenExport<T> extends AllDirectives {
+
+    private static final ContentType NDJSON = ContentTypes.create(MediaTypes.applicationWithFixedCharset("x-ndjson", HttpCharsets.UTF_8, "ndjson"));
+    private static final int LINES_PER_CHUNK = 256;
+
+    private final RefreshTokenScan<T> storage;
+    private final Function<T, String> user;
+
+    /**
+     * @param user the user of a session, which is exported and filtered by, e.g. the login of a String session
+     */
+    public RefreshTokenExport(RefreshTokenScan<T> storage, Function<T, String> user) {
+        this.storage = storage;
+        this.user = user;
+    }
+
+    /**
+     * Serves the export under GET refresh_tokens.
+     */
+    public Route route() {
+        return
+            path("refresh_tokens", () ->
+                get(() ->
+                    parameterOptional("user", forUser ->
+                        parameterOptional(StringUnmarshallers.LONG, "expires_from", from ->
+                            parameterOptional(StringUnmarshallers.LONG, "expires_to", to ->
+                                complete(HttpResponse.create().withEntity(HttpEntities.create(NDJSON, export(forUser, from, to))))
+                            )
+                        )
+                    )
+                )
+            );
+    }
+
+    /**
+     * The unexpired tokens of the user (if any) which expire within the range, as lines of JSON. The storage is scanned anew
+     * whenever the Source is materialized.
+     */
+    public Source<ByteString, NotUsed> export(Optional<String> forUser, Optional<Long> expiresFrom, Optional<Long> expiresTo) {
+        long from = expiresFrom.orElse(0L);
+        long to = expiresTo.orElse(Long.MAX_VALUE);
+        return Source.fromIterator(storage::scan)
+            .filter(token -> token.expires() >= Math.max(from, System.currentTimeMillis()) && token.expires() <= to)
+            .map(token -> Pair.create(token, user.apply(token.forSession())))
+            .filter(token -> !forUser.isPresent() || forUser.get().equals(token.second()))
+            .grouped(LINES_PER_CHUNK)
+            .map(tokens -> {
+                StringBuilder lines = new StringBuilder(tokens.size() * 96);
+                for (Pair<RefreshTokenData<T>, String> token : tokens) {
+                    lines.append("{\"selector\":");
+                    quote(lines, token.first().selector());
+                    lines.append(",\"user\":");
+                    quote(lines, token.second());
+                    lines.append(",\"expires\":").append(token.first().expires()).append("}\n");
+                }
+                return ByteString.fromString(lines.toString());
+            });
+    }
+
+    private static void quote(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,18 @@
+package session.continuity;
+
+import com.softwaremill.session.RefreshTokenData;
+
+import java.util.Iterator;
+
+/**
+ * A refresh token storage whose tokens can be enumerated, e.g. by a {@link RefreshTokenExport}.
+ * The RefreshTokenStorage of akka-http-session only looks tokens up by their selector.
+ */
+public interface RefreshTokenScan<T> {
+
+    /**
+     * Returns the stored tokens one at a time, without copying them first. The iteration is weakly consistent: it does not fail
+     * on concurrent stores and removes, and may or may not reflect them. Expired tokens which were not removed yet are included.
+     */
+    Iterator<RefreshTokenData<T>> scan();
+}
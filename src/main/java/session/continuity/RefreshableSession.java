@@ -9,6 +9,7 @@ import akka.http.javadsl.ServerBinding;
 import akka.http.javadsl.model.HttpRequest;
 import akka.http.javadsl.model.HttpResponse;
 import akka.http.javadsl.server.Route;
+import akka.http.javadsl.server.directives.SecurityDirectives.ProvidedCredentials;
 import akka.http.javadsl.unmarshalling.Unmarshaller;
 import akka.stream.ActorMaterializer;
 import akka.stream.javadsl.Flow;
@@ -21,13 +22,27 @@ import com.softwaremill.session.SessionEncoder;
 import com.softwaremill.session.SessionManager;
 import com.softwaremill.session.SetSessionTransport;
 import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
-import com.softwaremill.session.javadsl.InMemoryRefreshTokenStorage;
 import com.softwaremill.session.javadsl.SessionSerializers;
+import com.typesafe.config.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import session.admission.AdmissionControl;
+import session.instrumentation.RecordedRefreshTokenStorage;
+import session.instrumentation.RecordedSessionEncoder;
+import session.traffic.TrafficRecorder;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShapes;
+import session.warmup.Example;
+import session.warmup.Script;
+import session.warmup.Warmup;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
 import static com.softwaremill.session.javadsl.SessionTransports.HeaderST;
 
@@ -36,36 +51,103 @@ public class RefreshableSession extends HttpSessionAwareDirectives<String> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RefreshableSession.class);
     private static final String SECRET = "c05ll3lesrinf39t7mc5h6un6r0c69lgfno69dsak3vabeqamouq4328cuaekros401ajdpkh60rrtpd8ro24rbuqmgtnd1ebag6ljnb65i8a55d482ok7o0nch0bfbe";
-    private static final SessionEncoder<String> BASIC_ENCODER = new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer);
-
-    // ************************************************************ //
-    // This is where the refresh token in-memory storage is defined //
-    // ************************************************************ //
-    private static final RefreshTokenStorage<String> REFRESH_TOKEN_STORAGE = new InMemoryRefreshTokenStorage<String>() {
-        @Override
-        public void log(String msg) {
-            LOGGER.info(msg);
-        }
-    };
+    private static final SessionEncoder<String> BASIC_ENCODER = new RecordedSessionEncoder<>(
+        new PreValidatingSessionEncoder<>(
+            new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer),
+            TokenShapes.basic(4096)
+        ), "String", "header"
+    );
 
+    private final JournaledRefreshTokenStorage<String> refreshTokenJournal;
+    private final RefreshTokenExport<String> refreshTokenExport;
+    private final AdmissionControl loginAdmission;
+    private final String adminUser;
+    private final Optional<String> adminPassword;
     private Refreshable<String> refreshableSession;
     private SetSessionTransport sessionTransport;
+    private LazyRotation<String> lazyRotation;
 
-    private RefreshableSession(MessageDispatcher dispatcher) {
+    private RefreshableSession(MessageDispatcher dispatcher, Path journal, AdmissionControl loginAdmission, AdmissionControl refreshAdmission,
+                               String adminUser, Optional<String> adminPassword) {
         super(new SessionManager<>(
                 SessionConfig.defaultConfig(SECRET),
                 BASIC_ENCODER
             )
         );
+        // ********************************************************** //
+        // This is where the refresh token durable storage is defined //
+        // ********************************************************** //
+        // Tokens are read from memory, and mutations are appended to the journal in group commits
+        // of up to 256 mutations, collected within 5 milliseconds
+        // and every lookup, store and remove is a JFR event
+        refreshTokenJournal = new JournaledRefreshTokenStorage<>(
+            journal,
+            SessionSerializers.StringToStringSessionSerializer,
+            256,
+            5, TimeUnit.MILLISECONDS
+        );
+        RefreshTokenStorage<String> refreshTokenStorage = new RecordedRefreshTokenStorage<>(
+            refreshTokenJournal, "String", "header"
+        );
+
+        // ****************************************************************************** //
+        // The active refresh tokens are streamed as NDJSON, filtered by login and expiry //
+        // ****************************************************************************** //
+        refreshTokenExport = new RefreshTokenExport<>(refreshTokenJournal, login -> login);
+        this.adminUser = adminUser;
+        this.adminPassword = adminPassword;
+        this.loginAdmission = loginAdmission;
+
         // ********************************************************** //
         // This is where the Session continuity is set to Refreshable //
         // ********************************************************** //
         refreshableSession = new Refreshable<>(
             getSessionManager(),
-            REFRESH_TOKEN_STORAGE,
+            refreshTokenStorage,
             dispatcher
             );
         sessionTransport = HeaderST;
+        // ************************************************************************************ //
+        // Refresh tokens are reused until half of their lifetime has passed, and rotated after //
+        // ************************************************************************************ //
+        // and only the requests which fall back to their refresh token take a permit of the refresh admission
+        lazyRotation = new LazyRotation<>(getSessionManager(), refreshTokenStorage, sessionTransport, 0.5, refreshAdmission::admit);
+    }
+
+    /**
+     * The example as it serves clients, with its refresh tokens journaled to refresh-tokens.journal, and the credentials of its
+     * admin routes from the admin section of the config.
+     */
+    private static RefreshableSession create(MessageDispatcher dispatcher, Config config) {
+        // ******************************************************************************* //
+        // Logins and refreshes are limited to 5 per second and client IP, with bursts of 10 //
+        // ******************************************************************************* //
+        return new RefreshableSession(
+            dispatcher,
+            Paths.get("refresh-tokens.journal"),
+            new AdmissionControl(5, 10, 100_000),
+            new AdmissionControl(5, 10, 100_000),
+            config.getString("admin.user"),
+            config.hasPath("admin.password") ? Optional.of(config.getString("admin.password")) : Optional.empty()
+        );
+    }
+
+    /**
+     * An instance for the JIT warm-up and the benchmarks, so that their logins never reach the journal of the example: its refresh
+     * tokens are journaled to a temporary file, and it admits every request, as they all come from the same client. Its admin
+     * routes have no password, and so reject every request.
+     */
+    public static RefreshableSession throwaway(MessageDispatcher dispatcher) throws IOException {
+        Path journal = Files.createTempFile("refresh-tokens", ".journal");
+        journal.toFile().deleteOnExit();
+        return new RefreshableSession(
+            dispatcher,
+            journal,
+            new AdmissionControl(Double.POSITIVE_INFINITY, 1, 1),
+            new AdmissionControl(Double.POSITIVE_INFINITY, 1, 1),
+            "admin",
+            Optional.empty()
+        );
     }
 
     public static void main(String[] args) throws IOException {
@@ -74,12 +156,22 @@ public class RefreshableSession extends HttpSessionAwareDirectives<String> {
         ActorSystem system = ActorSystem.create("example");
         final ActorMaterializer materializer = ActorMaterializer.create(system);
         final Http http = Http.get(system);
+        final MessageDispatcher dispatcher = system.dispatchers().lookup("akka.actor.default-dispatcher");
 
         // ** akka-http-session setup **
-        final RefreshableSession app = new RefreshableSession(system.dispatchers().lookup("akka.actor.default-dispatcher"));
+        final RefreshableSession app = create(dispatcher, system.settings().config());
+
+        // ** akka-http boiler plate continued, with the optional traffic recording **
+        final Flow<HttpRequest, HttpResponse, NotUsed> routes = TrafficRecorder.record("String", app.getSessionManager().config(), app.createRoutes())
+            .flow(system, materializer);
+
+        // ** optional JIT warm-up, before the port is bound, on a throwaway instance **
+        if (Warmup.ENABLED) {
+            RefreshableSession throwaway = throwaway(dispatcher);
+            Warmup.warmUp(throwaway.createRoutes().flow(system, materializer), materializer, script(throwaway.getSessionManager().config()));
+            throwaway.refreshTokenJournal.close();
+        }
 
-        // ** akka-http boiler plate continued **
-        final Flow<HttpRequest, HttpResponse, NotUsed> routes = app.createRoutes().flow(system, materializer);
         final CompletionStage<ServerBinding> binding = http.bindAndHandle(routes, ConnectHttp.toHost("localhost", 8080), materializer);
 
         System.out.println("Server started, press enter to stop");
@@ -90,14 +182,39 @@ public class RefreshableSession extends HttpSessionAwareDirectives<String> {
             .thenAccept(unbound -> system.terminate());
     }
 
+    /**
+     * The requests of the JIT warm-up and of the benchmarks.
+     */
+    public static Script script(SessionConfig config) {
+        return new Script(config)
+            .post("/api/do_login", "my_login")
+            .get("/api/current_login")
+            .post("/api/do_logout", "");
+    }
+
+    /**
+     * The routes and the request script of the example, as the benchmarks run it: on the throwaway instance it warms up on.
+     */
+    public static Example example(ActorSystem system) throws IOException {
+        RefreshableSession app = throwaway(system.dispatchers().lookup("akka.actor.default-dispatcher"));
+        return new Example(app.createRoutes(), script(app.getSessionManager().config()));
+    }
+
     private Route createRoutes() {
         return
             route(
-                route(
-                    pathPrefix("api", () ->
-                        route(
-                            path("do_login", () ->
-                                post(() ->
+                // the admin routes expose who is logged in, so they need the admin credentials of the config
+                pathPrefix("admin", () ->
+                    authenticateBasic("admin", this::admin, user ->
+                        refreshTokenExport.route()
+                    )
+                ),
+                pathPrefix("api", () ->
+                    route(
+                        lazyRotation.report(),
+                        path("do_login", () ->
+                            post(() ->
+                                loginAdmission.admit(() ->
                                     entity(Unmarshaller.entityToString(), body -> {
                                             LOGGER.info("Logging in {}", body);
                                             return setSession(refreshableSession, sessionTransport, body, () ->
@@ -110,42 +227,51 @@ public class RefreshableSession extends HttpSessionAwareDirectives<String> {
                                         }
                                     )
                                 )
-                            ),
-
-                            // This should be protected and accessible only when logged in
-                            path("do_logout", () ->
-                                post(() ->
-                                    requiredSession(refreshableSession, sessionTransport, session ->
-                                        invalidateSession(refreshableSession, sessionTransport, () ->
-                                            extractRequestContext(ctx -> {
-                                                    LOGGER.info("Logging out {}", session);
-                                                    return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
-                                                        complete("ok")
-                                                    );
-                                                }
-                                            )
-                                        )
-                                    )
-                                )
-                            ),
+                            )
+                        ),
 
-                            // This should be protected and accessible only when logged in
-                            path("current_login", () ->
-                                get(() ->
-                                    requiredSession(refreshableSession, sessionTransport, session ->
+                        // This should be protected and accessible only when logged in
+                        path("do_logout", () ->
+                            post(() ->
+                                lazyRotation.requiredSession(next -> requiredSession(refreshableSession, sessionTransport, next), session ->
+                                    invalidateSession(refreshableSession, sessionTransport, () ->
                                         extractRequestContext(ctx -> {
-                                                LOGGER.info("Current session: " + session);
+                                                LOGGER.info("Logging out {}", session);
                                                 return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
-                                                    complete(session)
+                                                    complete("ok")
                                                 );
                                             }
                                         )
                                     )
                                 )
                             )
+                        ),
+
+                        // This should be protected and accessible only when logged in
+                        path("current_login", () ->
+                            get(() ->
+                                lazyRotation.requiredSession(next -> requiredSession(refreshableSession, sessionTransport, next), session ->
+                                    extractRequestContext(ctx -> {
+                                            LOGGER.info("Current session: " + session);
+                                            return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
+                                                complete(session)
+                                            );
+                                        }
+                                    )
+                                )
+                            )
                         )
                     )
                 )
             );
     }
+
+    /**
+     * Lets the admin in, if the config has an admin password; the password is compared in constant time.
+     */
+    private Optional<String> admin(Optional<ProvidedCredentials> credentials) {
+        return credentials
+            .filter(provided -> adminPassword.isPresent() && provided.identifier().equals(adminUser) && provided.verify(adminPassword.get()))
+            .map(ProvidedCredentials::identifier);
+    }
 }
\ No newline at end of file
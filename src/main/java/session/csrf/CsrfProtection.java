@@ -22,6 +22,17 @@ import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
 import com.softwaremill.session.javadsl.SessionSerializers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import session.assets.PreloadedAssets;
+import session.instrumentation.AllocationAccounting;
+import session.instrumentation.RecordedCsrfCheck;
+import session.instrumentation.RecordedSessionEncoder;
+import session.tokens.TokenGenerator;
+import session.traffic.TrafficRecorder;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShapes;
+import session.warmup.Example;
+import session.warmup.Script;
+import session.warmup.Warmup;
 
 import java.io.IOException;
 import java.util.concurrent.CompletionStage;
@@ -34,10 +45,32 @@ public class CsrfProtection extends HttpSessionAwareDirectives<String> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CsrfProtection.class);
     private static final String SECRET = "c05ll3lesrinf39t7mc5h6un6r0c69lgfno69dsak3vabeqamouq4328cuaekros401ajdpkh60rrtpd8ro24rbuqmgtnd1ebag6ljnb65i8a55d482ok7o0nch0bfbe";
-    private static final SessionEncoder<String> BASIC_ENCODER = new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer);
+    private static final SessionEncoder<String> BASIC_ENCODER = new RecordedSessionEncoder<>(
+        new PreValidatingSessionEncoder<>(
+            new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer),
+            TokenShapes.basic(4096)
+        ), "String", "cookie"
+    );
+
+    // *********************************************************************************** //
+    // The login page is served from memory; its GET requests still get a fresh csrf token //
+    // *********************************************************************************** //
+    private static final PreloadedAssets SITE_ASSETS = new PreloadedAssets("index.html", "jquery.min.js", "js-cookie.js");
+
+    // opt-in allocation accounting of the session directives, see GET /allocations
+    private static final AllocationAccounting<String> ALLOCATIONS = new AllocationAccounting<>("String");
+
+    // every CSRF token check is a JFR event
+    private static final RecordedCsrfCheck CSRF_EVENTS = new RecordedCsrfCheck("String", "cookie");
+
+    // **************************************************************************** //
+    // CSRF tokens of 256 bits, taken from random bytes generated in the background //
+    // **************************************************************************** //
+    private static final TokenGenerator CSRF_TOKENS = new TokenGenerator(32, 256, 4);
 
     private OneOff<String> oneOffSession;
     private SetSessionTransport sessionTransport;
+    private CsrfSessionDirective<String> csrfSession;
 
     private CsrfProtection() {
         super(new SessionManager<>(
@@ -47,6 +80,7 @@ public class CsrfProtection extends HttpSessionAwareDirectives<String> {
         );
         oneOffSession = new OneOff<>(getSessionManager());
         sessionTransport = CookieST;
+        csrfSession = new CsrfSessionDirective<>(getSessionManager(), sessionTransport, CSRF_EVENTS, CSRF_TOKENS);
     }
 
     public static void main(String[] args) throws IOException {
@@ -59,8 +93,13 @@ public class CsrfProtection extends HttpSessionAwareDirectives<String> {
         // ** akka-http-session setup **
         final CsrfProtection app = new CsrfProtection();
 
-        // ** akka-http boiler plate continued **
-        final Flow<HttpRequest, HttpResponse, NotUsed> routes = app.createRoutes().flow(system, materializer);
+        // ** optional JIT warm-up, before the port is bound, on routes which are not recorded **
+        Warmup.warmUp(app.createRoutes().flow(system, materializer), materializer, script(app.getSessionManager().config()));
+
+        // ** akka-http boiler plate continued, with the optional traffic recording **
+        final Flow<HttpRequest, HttpResponse, NotUsed> routes = TrafficRecorder.record("String", app.getSessionManager().config(), app.createRoutes())
+            .flow(system, materializer);
+
         final CompletionStage<ServerBinding> binding = http.bindAndHandle(routes, ConnectHttp.toHost("localhost", 8080), materializer);
 
         System.out.println("Server started, press enter to stop");
@@ -71,6 +110,26 @@ public class CsrfProtection extends HttpSessionAwareDirectives<String> {
             .thenAccept(unbound -> system.terminate());
     }
 
+    /**
+     * The requests of the JIT warm-up and of the benchmarks.
+     */
+    public static Script script(SessionConfig config) {
+        return new Script(config)
+            .get("/")
+            .get("/site/index.html")
+            .post("/api/do_login", "my_login")
+            .get("/api/current_login")
+            .post("/api/do_logout", "");
+    }
+
+    /**
+     * The routes and the request script of the example, as the benchmarks run it.
+     */
+    public static Example example(ActorSystem system) {
+        CsrfProtection app = new CsrfProtection();
+        return new Example(app.createRoutes(), script(app.getSessionManager().config()));
+    }
+
     private Route createRoutes() {
         // ********************************* //
         // This is required for CSRF to work //
@@ -78,10 +137,50 @@ public class CsrfProtection extends HttpSessionAwareDirectives<String> {
         CheckHeader<String> checkHeader = new CheckHeader<>(getSessionManager());
         return
             route(
+                ALLOCATIONS.report(),
+                // ***************************************************************** //
+                // the endpoints requiring a session check the csrf token themselves //
+                // ***************************************************************** //
+                // reading the csrf cookie, the csrf header and the session cookie in a single pass
+                pathPrefix("api", () ->
+                    route(
+                        // This should be protected and accessible only when logged in
+                        path("do_logout", () ->
+                            post(() ->
+                                ALLOCATIONS.measure("do_logout", "csrfRequiredSession", next -> csrfSession.csrfRequiredSession(next), session ->
+                                    invalidateSession(oneOffSession, sessionTransport, () ->
+                                        extractRequestContext(ctx -> {
+                                                LOGGER.info("Logging out {}", session);
+                                                return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
+                                                    complete("ok")
+                                                );
+                                            }
+                                        )
+                                    )
+                                )
+                            )
+                        ),
+
+                        // This should be protected and accessible only when logged in
+                        path("current_login", () ->
+                            get(() ->
+                                ALLOCATIONS.measure("current_login", "csrfRequiredSession", next -> csrfSession.csrfRequiredSession(next), session ->
+                                    extractRequestContext(ctx -> {
+                                            LOGGER.info("Current session: " + session);
+                                            return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
+                                                complete(session)
+                                            );
+                                        }
+                                    )
+                                )
+                            )
+                        )
+                    )
+                ),
                 // *************************************************** //
                 // for each GET request, issue a new random csrf token //
                 // *************************************************** //
-                randomTokenCsrfProtection(checkHeader, () ->
+                CSRF_EVENTS.check(csrf -> ALLOCATIONS.measure("*", "randomTokenCsrfProtection", next -> randomTokenCsrfProtection(checkHeader, next), csrf), () ->
                     route(
                         pathSingleSlash(() ->
                             complete("Welcome")
@@ -89,60 +188,30 @@ public class CsrfProtection extends HttpSessionAwareDirectives<String> {
                         ,
                         route(
                             pathPrefix("site", () ->
-                                getFromResourceDirectory("")),
+                                route(
+                                    SITE_ASSETS.route(),
+                                    getFromResourceDirectory("")
+                                )
+                            ),
 
                             pathPrefix("api", () ->
-                                route(
-                                    path("do_login", () ->
-                                        post(() ->
-                                            entity(Unmarshaller.entityToString(), body -> {
-                                                    LOGGER.info("Logging in {}", body);
-                                                    return setSession(oneOffSession, sessionTransport, body, () ->
-                                                        // ************************************************************ //
-                                                        // when logged in, issue a new csrf token to prevent a fixation //
-                                                        // ************************************************************ //
-                                                        setNewCsrfToken(checkHeader, () ->
-                                                            extractRequestContext(ctx ->
-                                                                onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
-                                                                    complete("ok")
-                                                                )
+                                path("do_login", () ->
+                                    post(() ->
+                                        entity(Unmarshaller.entityToString(), body -> {
+                                                LOGGER.info("Logging in {}", body);
+                                                return ALLOCATIONS.measure("do_login", "setSession", next -> setSession(oneOffSession, sessionTransport, body, next), () ->
+                                                    // ************************************************************ //
+                                                    // when logged in, issue a new csrf token to prevent a fixation //
+                                                    // ************************************************************ //
+                                                    ALLOCATIONS.measure("do_login", "setNewCsrfToken", next -> csrfSession.setNewCsrfToken(next), () ->
+                                                        extractRequestContext(ctx ->
+                                                            onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
+                                                                complete("ok")
                                                             )
                                                         )
-                                                    );
-                                                }
-                                            )
-                                        )
-                                    ),
-
-                                    // This should be protected and accessible only when logged in
-                                    path("do_logout", () ->
-                                        post(() ->
-                                            requiredSession(oneOffSession, sessionTransport, session ->
-                                                invalidateSession(oneOffSession, sessionTransport, () ->
-                                                    extractRequestContext(ctx -> {
-                                                            LOGGER.info("Logging out {}", session);
-                                                            return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
-                                                                complete("ok")
-                                                            );
-                                                        }
                                                     )
-                                                )
-                                            )
-                                        )
-                                    ),
-
-                                    // This should be protected and accessible only when logged in
-                                    path("current_login", () ->
-                                        get(() ->
-                                            requiredSession(oneOffSession, sessionTransport, session ->
-                                                extractRequestContext(ctx -> {
-                                                        LOGGER.info("Current session: " + session);
-                                                        return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
-                                                            complete(session)
-                                                        );
-                                                    }
-                                                )
-                                            )
+                                                );
+                                            }
                                         )
                                     )
                                 )
@@ -152,4 +221,4 @@ public class CsrfProtection extends HttpSessionAwareDirectives<String> {
                 )
             );
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package session.csrf;
+
+import akka.http.javadsl.model.HttpHeader;
+import akka.http.javadsl.model.HttpMethods;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.headers.Cookie;
+import akka.http.javadsl.model.headers.HttpCookie;
+import akka.http.javadsl.model.headers.HttpCookiePair;
+import akka.http.javadsl.server.Rejections;
+import akka.http.javadsl.server.Route;
+import com.softwaremill.session.CookieConfig;
+import com.softwaremill.session.OneOff;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionManager;
+import com.softwaremill.session.SessionResult;
+import com.softwaremill.session.SetSessionTransport;
+import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
+import session.instrumentation.RecordedCsrfCheck;
+import session.tokens.TokenGenerator;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.softwaremill.session.javadsl.SessionTransports.CookieST;
+
+/**
+ * randomTokenCsrfProtection and requiredSession fused into one directive, for one-off sessions.
+ * <p>
+ * The two directives each read the request headers on their own: the CSRF cookie and the submitted token for the one, the session
+ * cookie or header for the other. This directive scans the headers once, collecting all three, and then checks them in order of cost:
+ * <ul>
+ * <li>for methods other than GET, the submitted token has to equal the CSRF cookie; a mismatch is rejected before the session is
+ * decoded</li>
+ * <li>for GET requests without a CSRF cookie, a new CSRF token is set, as randomTokenCsrfProtection does</li>
+ * <li>the session token is decoded, and the request is rejected if it is missing, expired or corrupt; a session signed with the
+ * old secret is set again, as requiredSession does</li>
+ * </ul>
+ * Like randomTokenCsrfProtection, only GET is exempt from the check, so HEAD and OPTIONS requests need the token as well.
+ * Rejections are the AuthorizationFailedRejection used by both directives, so the routes behave as with the nested directives.
+ * New CSRF tokens are taken from a {@link TokenGenerator}, instead of being generated on the request thread.
+ */
+public class CsrfSessionDirective<T> extends HttpSessionAwareDirectives<T> {
+
+    private final RecordedCsrfCheck events;
+    private final TokenGenerator csrfTokens;
+    private final OneOff<T> oneOffSession;
+    private final SetSessionTransport transport;
+    private final boolean cookieTransport;
+    private final String csrfCookieName;
+    private final String csrfHeaderName;
+    private final String sessionName;
+    private final CookieConfig csrfCookie;
+
+    public CsrfSessionDirective(SessionManager<T> manager, SetSessionTransport transport, RecordedCsrfCheck events, TokenGenerator csrfTokens) {
+        super(manager);
+        SessionConfig config = manager.config();
+        this.events = events;
+        this.csrfTokens = csrfTokens;
+        this.oneOffSession = new OneOff<>(manager);
+        this.transport = transport;
+        this.cookieTransport = transport == CookieST;
+        this.csrfCookieName = config.csrfCookieConfig().name();
+        this.csrfHeaderName = config.csrfSubmittedName().toLowerCase();
+        this.sessionName = cookieTransport
+            ? config.sessionCookieConfig().name()
+            : config.sessionHeaderConfig().getFromClientHeaderName().toLowerCase();
+        this.csrfCookie = config.csrfCookieConfig();
+    }
+
+    /**
+     * Checks the CSRF token and passes the required session to the inner route.
+     */
+    public Route csrfRequiredSession(Function<T, Route> inner) {
+        return
+            extractRequest(request -> {
+                    Tokens tokens = scan(request);
+                    boolean safe = request.method().equals(HttpMethods.GET);
+                    if (!events.record(safe, tokens::csrfMatches))
+                        return reject(Rejections.authorizationFailed());
+                    Route session = requiredSession(tokens.session, inner);
+                    if (safe && tokens.csrfCookie == null)
+                        return setNewCsrfToken(() -> session);
+                    return session;
+                }
+            );
+    }
+
+    /**
+     * Sets a new CSRF token cookie, e.g. after a login, like setNewCsrfToken(checkHeader, inner) does.
+     */
+    public Route setNewCsrfToken(Supplier<Route> inner) {
+        HttpCookie cookie = HttpCookie.create(csrfCookie.name(), csrfTokens.next())
+            .withSecure(csrfCookie.secure())
+            .withHttpOnly(csrfCookie.httpOnly());
+        if (csrfCookie.domain().isDefined())
+            cookie = cookie.withDomain(csrfCookie.domain().get());
+        if (csrfCookie.path().isDefined())
+            cookie = cookie.withPath(csrfCookie.path().get());
+        return setCookie(cookie, inner);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Route requiredSession(String token, Function<T, Route> inner) {
+        if (token == null)
+            return reject(Rejections.authorizationFailed());
+        SessionResult<T> result = getSessionManager().clientSessionManager().decode(token);
+        if (result instanceof SessionResult.Decoded)
+            return inner.apply(((SessionResult.Decoded<T>) result).session());
+        if (result instanceof SessionResult.DecodedLegacy) {
+            T session = ((SessionResult.DecodedLegacy<T>) result).session();
+            return setSession(oneOffSession, transport, session, () -> inner.apply(session));
+        }
+        return reject(Rejections.authorizationFailed());
+    }
+
+    private Tokens scan(HttpRequest request) {
+        Tokens tokens = new Tokens();
+        for (HttpHeader header : request.getHeaders()) {
+            if (header instanceof Cookie) {
+                for (HttpCookiePair pair : ((Cookie) header).getCookies()) {
+                    if (pair.name().equals(csrfCookieName))
+                        tokens.csrfCookie = pair.value();
+                    else if (cookieTransport && pair.name().equals(sessionName))
+                        tokens.session = pair.value();
+                }
+            } else if (header.is(csrfHeaderName)) {
+                tokens.csrfSubmitted = header.value();
+            } else if (!cookieTransport && header.is(sessionName)) {
+                tokens.session = header.value();
+            }
+        }
+        return tokens;
+    }
+
+    private static final class Tokens {
+
+        private String csrfCookie;
+        private String csrfSubmitted;
+        private String session;
+
+        /**
+         * Compares the submitted token with the cookie in constant time.
+         */
+        boolean csrfMatches() {
+            if (csrfCookie == null || csrfCookie.isEmpty() || csrfSubmitted == null || csrfSubmitted.length() != csrfCookie.length())
+                return false;
+            int diff = 0;
+            for (int i = 0; i < csrfCookie.length(); i++) {
+                diff |= csrfCookie.charAt(i) ^ csrfSubmitted.charAt(i);
+            }
+            return diff == 0;
+        }
+    }
+}
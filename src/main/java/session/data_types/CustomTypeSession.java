@@ -20,6 +20,17 @@ import com.softwaremill.session.SetSessionTransport;
 import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import session.instrumentation.AllocationAccounting;
+import session.instrumentation.RecordedSessionEncoder;
+import session.server_side.HybridSessionEncoder;
+import session.server_side.InMemorySessionStore;
+import session.traffic.TrafficRecorder;
+import session.transport.TokenReader;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShapes;
+import session.warmup.Example;
+import session.warmup.Script;
+import session.warmup.Warmup;
 
 import java.io.IOException;
 import java.util.concurrent.CompletionStage;
@@ -35,10 +46,27 @@ public class CustomTypeSession extends HttpSessionAwareDirectives<CustomType> {
     // ******************************************************** //
     // This is where the Session Data Type is set to CustomType //
     // ******************************************************** //
-    private static final SessionEncoder<CustomType> BASIC_ENCODER = new BasicSessionEncoder<>(CustomType.getSerializer());
+    // Sessions whose token would be longer than 1024 characters are kept on the server, and the client only gets a signed id.
+    // The store keeps at most 100,000 sessions of up to 64K characters each, and do_logout removes the server-side copy.
+    private static final HybridSessionEncoder<CustomType> HYBRID_ENCODER = new HybridSessionEncoder<>(
+        new BasicSessionEncoder<>(CustomType.getSerializer()),
+        CustomType.getSerializer(),
+        new InMemorySessionStore(100_000),
+        1024, 64 * 1024, 10_000
+    );
+    private static final SessionEncoder<CustomType> BASIC_ENCODER = new RecordedSessionEncoder<>(
+        new PreValidatingSessionEncoder<>(
+            HYBRID_ENCODER,
+            TokenShapes.hybrid(TokenShapes.basic(1024))
+        ), "CustomType", "header"
+    );
+
+    // opt-in allocation accounting of the session directives, see GET /allocations
+    private static final AllocationAccounting<CustomType> ALLOCATIONS = new AllocationAccounting<>("CustomType");
 
     private OneOff<CustomType> oneOffSession;
     private SetSessionTransport sessionTransport;
+    private TokenReader tokens;
 
     private CustomTypeSession() {
         super(new SessionManager<>(
@@ -48,6 +76,7 @@ public class CustomTypeSession extends HttpSessionAwareDirectives<CustomType> {
         );
         oneOffSession = new OneOff<>(getSessionManager());
         sessionTransport = HeaderST;
+        tokens = new TokenReader(getSessionManager().config(), sessionTransport);
     }
 
     public static void main(String[] args) throws IOException {
@@ -60,8 +89,13 @@ public class CustomTypeSession extends HttpSessionAwareDirectives<CustomType> {
         // ** akka-http-session setup **
         final CustomTypeSession app = new CustomTypeSession();
 
-        // ** akka-http boiler plate continued **
-        final Flow<HttpRequest, HttpResponse, NotUsed> routes = app.createRoutes().flow(system, materializer);
+        // ** optional JIT warm-up, before the port is bound, on routes which are not recorded **
+        Warmup.warmUp(app.createRoutes().flow(system, materializer), materializer, script(app.getSessionManager().config()));
+
+        // ** akka-http boiler plate continued, with the optional traffic recording **
+        final Flow<HttpRequest, HttpResponse, NotUsed> routes = TrafficRecorder.record("CustomType", app.getSessionManager().config(), app.createRoutes())
+            .flow(system, materializer);
+
         final CompletionStage<ServerBinding> binding = http.bindAndHandle(routes, ConnectHttp.toHost("localhost", 8080), materializer);
 
         System.out.println("Server started, press enter to stop");
@@ -72,16 +106,33 @@ public class CustomTypeSession extends HttpSessionAwareDirectives<CustomType> {
             .thenAccept(unbound -> system.terminate());
     }
 
+    /**
+     * The requests of the JIT warm-up and of the benchmarks.
+     */
+    public static Script script(SessionConfig config) {
+        return new Script(config)
+            .post("/api/do_login", "my_login,42");
+    }
+
+    /**
+     * The routes and the request script of the example, as the benchmarks run it.
+     */
+    public static Example example(ActorSystem system) {
+        CustomTypeSession app = new CustomTypeSession();
+        return new Example(app.createRoutes(), script(app.getSessionManager().config()));
+    }
+
     private Route createRoutes() {
         return
             route(
+                ALLOCATIONS.report(),
                 pathPrefix("api", () ->
                     route(
                         path("do_login", () ->
                             post(() ->
                                 entity(Unmarshaller.entityToString(), body -> {
                                         LOGGER.info("Logging in {}", body);
-                                        return setSession(oneOffSession, sessionTransport, stringToCustomType(body), () ->
+                                        return ALLOCATIONS.measure("do_login", "setSession", next -> setSession(oneOffSession, sessionTransport, stringToCustomType(body), next), () ->
                                             extractRequestContext(ctx ->
                                                 onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
                                                     complete("ok")
@@ -91,6 +142,23 @@ public class CustomTypeSession extends HttpSessionAwareDirectives<CustomType> {
                                     }
                                 )
                             )
+                        ),
+
+                        // This should be protected and accessible only when logged in
+                        path("do_logout", () ->
+                            post(() ->
+                                requiredSession(oneOffSession, sessionTransport, session ->
+                                    extractRequest(request -> {
+                                            // the server-side copy of a large session goes as well, so that its token cannot be replayed
+                                            tokens.session(request).ifPresent(token -> HYBRID_ENCODER.remove(token, getSessionManager().config()));
+                                            return invalidateSession(oneOffSession, sessionTransport, () -> {
+                                                LOGGER.info("Logging out {}", session);
+                                                return complete("ok");
+                                            });
+                                        }
+                                    )
+                                )
+                            )
                         )
                     )
                 )
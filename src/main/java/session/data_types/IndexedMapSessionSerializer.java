@@ -0,0 +1,265 @@
+package session.data_types;
+
+import com.softwaremill.session.SessionSerializer;
+import scala.util.Failure;
+import scala.util.Success;
+import scala.util.Try;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A Map session serializer, which writes the entries sorted by key into an offset-indexed binary layout (base64url-encoded):
+ * <pre>
+ *   | n (int) | key offset 0 | value offset 0 | ... | key offset n-1 | value offset n-1 | end offset | keys and values (UTF-8) |
+ * </pre>
+ * Key i spans [key offset i, value offset i), and its value spans [value offset i, key offset i+1), where key offset n is the end offset.
+ * Deserializing only decodes the base64 and checks the offsets. The returned read-only Map looks keys up with a binary search over the
+ * encoded bytes, so reading a single attribute neither builds a HashMap nor creates Strings for the other entries.
+ * {@link #lookup} goes one step further, and reads a single value straight from the base64 form, decoding only the parts it visits.
+ */
+public class IndexedMapSessionSerializer implements SessionSerializer<Map<String, String>, String> {
+
+    public static final IndexedMapSessionSerializer INSTANCE = new IndexedMapSessionSerializer();
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    @Override
+    public String serialize(Map<String, String> session) {
+        if (session instanceof IndexedMap)
+            return ENCODER.encodeToString(((IndexedMap) session).buffer);
+
+        int n = session.size();
+        byte[][] keys = new byte[n][];
+        byte[][] values = new byte[n][];
+        int i = 0;
+        for (Map.Entry<String, String> entry : session.entrySet()) {
+            keys[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            values[i] = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            i++;
+        }
+        Integer[] order = new Integer[n];
+        for (i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> compare(keys[a], 0, keys[a].length, keys[b]));
+
+        int headerLength = 4 * (2 * n + 2);
+        int length = headerLength;
+        for (i = 0; i < n; i++) {
+            length += keys[i].length + values[i].length;
+        }
+        byte[] buffer = new byte[length];
+        writeInt(buffer, 0, n);
+        int data = headerLength;
+        for (i = 0; i < n; i++) {
+            int e = order[i];
+            writeInt(buffer, 4 + 8 * i, data);
+            System.arraycopy(keys[e], 0, buffer, data, keys[e].length);
+            data += keys[e].length;
+            writeInt(buffer, 8 + 8 * i, data);
+            System.arraycopy(values[e], 0, buffer, data, values[e].length);
+            data += values[e].length;
+        }
+        writeInt(buffer, 4 + 8 * n, data);
+        return ENCODER.encodeToString(buffer);
+    }
+
+    @Override
+    public Try<Map<String, String>> deserialize(String serialized) {
+        try {
+            return new Success<>(new IndexedMap(DECODER.decode(serialized)));
+        } catch (IllegalArgumentException e) {
+            return new Failure<>(e);
+        }
+    }
+
+    /**
+     * Looks a single key up in a serialized map, without decoding the rest of it; returns null if the key is not in the map.
+     *
+     * @throws IllegalArgumentException if the serialized map is malformed
+     */
+    public static String lookup(String serialized, String key) {
+        int length = serialized.length() * 3 / 4;
+        int n = readInt(decode(serialized, 0, 4), 0);
+        if (n < 0 || n > (length - 8) / 8)
+            throw new IllegalArgumentException("Invalid indexed map size: " + n);
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = n - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            // key offset, value offset and the next key offset
+            byte[] offsets = decode(serialized, 4 + 8 * mid, 16 + 8 * mid);
+            int keyStart = readInt(offsets, 0);
+            int valueStart = readInt(offsets, 4);
+            int valueEnd = readInt(offsets, 8);
+            if (keyStart < 4 * (2 * n + 2) || keyStart > valueStart || valueStart > valueEnd || valueEnd > length)
+                throw new IllegalArgumentException("Invalid indexed map offsets at " + mid);
+            byte[] entry = decode(serialized, keyStart, valueEnd);
+            int cmp = compare(entry, 0, valueStart - keyStart, keyBytes);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return new String(entry, valueStart - keyStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the bytes [from, to) of a base64url string, from the 4 character groups which hold them.
+     */
+    private static byte[] decode(String serialized, int from, int to) {
+        int firstGroup = from / 3;
+        int chars = Math.min(serialized.length(), (to + 2) / 3 * 4) - firstGroup * 4;
+        if (chars <= 0)
+            throw new IllegalArgumentException("Indexed map too short");
+        byte[] group = DECODER.decode(serialized.substring(firstGroup * 4, firstGroup * 4 + chars));
+        int skip = from - firstGroup * 3;
+        if (group.length < skip + (to - from))
+            throw new IllegalArgumentException("Indexed map too short");
+        return Arrays.copyOfRange(group, skip, skip + (to - from));
+    }
+
+    private static int compare(byte[] a, int from, int to, byte[] b) {
+        int length = Math.min(to - from, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[from + i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0)
+                return diff;
+        }
+        return (to - from) - b.length;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16 | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF);
+    }
+
+    /**
+     * The read-only Map view over an encoded buffer.
+     */
+    private static final class IndexedMap extends AbstractMap<String, String> {
+
+        private final byte[] buffer;
+        private final int size;
+
+        IndexedMap(byte[] buffer) {
+            if (buffer.length < 8)
+                throw new IllegalArgumentException("Indexed map too short");
+            int n = readInt(buffer, 0);
+            if (n < 0 || n > (buffer.length - 8) / 8)
+                throw new IllegalArgumentException("Invalid indexed map size: " + n);
+            int previous = 4 * (2 * n + 2);
+            for (int i = 1; i <= 2 * n + 1; i++) {
+                int offset = readInt(buffer, 4 * i);
+                if (offset < previous || offset > buffer.length)
+                    throw new IllegalArgumentException("Invalid indexed map offset: " + offset);
+                previous = offset;
+            }
+            if (previous != buffer.length)
+                throw new IllegalArgumentException("Trailing bytes after indexed map");
+            this.buffer = buffer;
+            this.size = n;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && indexOf((String) key) >= 0;
+        }
+
+        @Override
+        public String get(Object key) {
+            if (!(key instanceof String))
+                return null;
+            int index = indexOf((String) key);
+            return index < 0 ? null : value(index);
+        }
+
+        private int indexOf(String key) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(buffer, keyStart(mid), valueStart(mid), keyBytes);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+
+        private int keyStart(int index) {
+            return readInt(buffer, 4 + 8 * index);
+        }
+
+        private int valueStart(int index) {
+            return readInt(buffer, 8 + 8 * index);
+        }
+
+        private String key(int index) {
+            int from = keyStart(index);
+            return new String(buffer, from, valueStart(index) - from, StandardCharsets.UTF_8);
+        }
+
+        private String value(int index) {
+            int from = valueStart(index);
+            return new String(buffer, from, keyStart(index + 1) - from, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (next >= size)
+                                throw new NoSuchElementException();
+                            int index = next++;
+                            return new SimpleImmutableEntry<>(key(index), value(index));
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
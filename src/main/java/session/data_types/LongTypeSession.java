@@ -11,16 +11,22 @@ import akka.http.javadsl.server.Route;
 import akka.http.javadsl.unmarshalling.Unmarshaller;
 import akka.stream.ActorMaterializer;
 import akka.stream.javadsl.Flow;
-import com.softwaremill.session.BasicSessionEncoder;
 import com.softwaremill.session.OneOff;
 import com.softwaremill.session.SessionConfig;
 import com.softwaremill.session.SessionEncoder;
 import com.softwaremill.session.SessionManager;
 import com.softwaremill.session.SetSessionTransport;
 import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
-import com.softwaremill.session.javadsl.SessionSerializers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import session.instrumentation.AllocationAccounting;
+import session.instrumentation.RecordedSessionEncoder;
+import session.traffic.TrafficRecorder;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShapes;
+import session.warmup.Example;
+import session.warmup.Script;
+import session.warmup.Warmup;
 
 import java.io.IOException;
 import java.util.concurrent.CompletionStage;
@@ -36,7 +42,13 @@ public class LongTypeSession extends HttpSessionAwareDirectives<Long> {
     // ***************************************************** //
     // This is where the Session Data Type is set to Long //
     // ***************************************************** //
-    private static final SessionEncoder<Long> BASIC_ENCODER = new BasicSessionEncoder<>(SessionSerializers.LongToStringSessionSerializer);
+    // LongSessionEncoder writes the value as fixed-width binary, instead of going through LongToStringSessionSerializer
+    private static final SessionEncoder<Long> LONG_ENCODER = new RecordedSessionEncoder<>(
+        new PreValidatingSessionEncoder<>(new LongSessionEncoder(), TokenShapes.longRecord()), "Long", "header"
+    );
+
+    // opt-in allocation accounting of the session directives, see GET /allocations
+    private static final AllocationAccounting<Long> ALLOCATIONS = new AllocationAccounting<>("Long");
 
     private OneOff<Long> oneOffSession;
     private SetSessionTransport sessionTransport;
@@ -44,7 +56,7 @@ public class LongTypeSession extends HttpSessionAwareDirectives<Long> {
     private LongTypeSession() {
         super(new SessionManager<>(
                 SessionConfig.defaultConfig(SECRET),
-                BASIC_ENCODER
+                LONG_ENCODER
             )
         );
         oneOffSession = new OneOff<>(getSessionManager());
@@ -61,8 +73,13 @@ public class LongTypeSession extends HttpSessionAwareDirectives<Long> {
         // ** akka-http-session setup **
         final LongTypeSession app = new LongTypeSession();
 
-        // ** akka-http boiler plate continued **
-        final Flow<HttpRequest, HttpResponse, NotUsed> routes = app.createRoutes().flow(system, materializer);
+        // ** optional JIT warm-up, before the port is bound, on routes which are not recorded **
+        Warmup.warmUp(app.createRoutes().flow(system, materializer), materializer, script(app.getSessionManager().config()));
+
+        // ** akka-http boiler plate continued, with the optional traffic recording **
+        final Flow<HttpRequest, HttpResponse, NotUsed> routes = TrafficRecorder.record("Long", app.getSessionManager().config(), app.createRoutes())
+            .flow(system, materializer);
+
         final CompletionStage<ServerBinding> binding = http.bindAndHandle(routes, ConnectHttp.toHost("localhost", 8080), materializer);
 
         System.out.println("Server started, press enter to stop");
@@ -73,16 +90,33 @@ public class LongTypeSession extends HttpSessionAwareDirectives<Long> {
             .thenAccept(unbound -> system.terminate());
     }
 
+    /**
+     * The requests of the JIT warm-up and of the benchmarks.
+     */
+    public static Script script(SessionConfig config) {
+        return new Script(config)
+            .post("/api/do_login", "12321");
+    }
+
+    /**
+     * The routes and the request script of the example, as the benchmarks run it.
+     */
+    public static Example example(ActorSystem system) {
+        LongTypeSession app = new LongTypeSession();
+        return new Example(app.createRoutes(), script(app.getSessionManager().config()));
+    }
+
     private Route createRoutes() {
         return
             route(
+                ALLOCATIONS.report(),
                 pathPrefix("api", () ->
                     route(
                         path("do_login", () ->
                             post(() ->
                                 entity(Unmarshaller.entityToString(), body -> {
                                         LOGGER.info("Logging in {}", body);
-                                        return setSession(oneOffSession, sessionTransport, Long.valueOf(body), () ->
+                                        return ALLOCATIONS.measure("do_login", "setSession", next -> setSession(oneOffSession, sessionTransport, Long.parseLong(body), next), () ->
                                             extractRequestContext(ctx ->
                                                 onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
                                                     complete("ok")
@@ -11,16 +11,28 @@ import akka.http.javadsl.server.Route;
 import akka.http.javadsl.unmarshalling.Unmarshaller;
 import akka.stream.ActorMaterializer;
 import akka.stream.javadsl.Flow;
-import com.softwaremill.session.BasicSessionEncoder;
 import com.softwaremill.session.OneOff;
 import com.softwaremill.session.SessionConfig;
 import com.softwaremill.session.SessionEncoder;
 import com.softwaremill.session.SessionManager;
 import com.softwaremill.session.SetSessionTransport;
 import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
-import com.softwaremill.session.javadsl.SessionSerializers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import session.instrumentation.AllocationAccounting;
+import session.instrumentation.RecordedSessionEncoder;
+import session.lazy.LazySession;
+import session.lazy.LazySessionEncoder;
+import session.lazy.LazySessionSerializer;
+import session.server_side.HybridSessionEncoder;
+import session.server_side.InMemorySessionStore;
+import session.traffic.TrafficRecorder;
+import session.transport.TokenReader;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShapes;
+import session.warmup.Example;
+import session.warmup.Script;
+import session.warmup.Warmup;
 
 import java.io.IOException;
 import java.util.Map;
@@ -29,7 +41,7 @@ import java.util.concurrent.CompletionStage;
 import static com.softwaremill.session.javadsl.SessionTransports.HeaderST;
 
 
-public class MapTypeSession extends HttpSessionAwareDirectives<Map<String, String>> {
+public class MapTypeSession extends HttpSessionAwareDirectives<LazySession<Map<String, String>>> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MapTypeSession.class);
     private static final String SECRET = "c05ll3lesrinf39t7mc5h6un6r0c69lgfno69dsak3vabeqamouq4328cuaekros401ajdpkh60rrtpd8ro24rbuqmgtnd1ebag6ljnb65i8a55d482ok7o0nch0bfbe";
@@ -37,19 +49,39 @@ public class MapTypeSession extends HttpSessionAwareDirectives<Map<String, Strin
     // ***************************************************************** //
     // This is where the Session Data Type is set to Map<String, String> //
     // ***************************************************************** //
-    private static final SessionEncoder<Map<String, String>> BASIC_ENCODER = new BasicSessionEncoder<>(SessionSerializers.MapToStringSessionSerializer);
-
-    private OneOff<Map<String, String>> oneOffSession;
+    // The LazySessionEncoder only checks the signature, the map is deserialized when the route first asks for it.
+    // The IndexedMapSessionSerializer keeps the map in its encoded form and binary-searches it on every get.
+    // Maps whose token would be longer than 1024 characters are kept on the server, and the client only gets a signed id.
+    // The store keeps at most 100,000 sessions of up to 64K characters each, and do_logout removes the server-side copy.
+    private static final HybridSessionEncoder<LazySession<Map<String, String>>> HYBRID_ENCODER = new HybridSessionEncoder<>(
+        new LazySessionEncoder<>(IndexedMapSessionSerializer.INSTANCE),
+        new LazySessionSerializer<>(IndexedMapSessionSerializer.INSTANCE),
+        new InMemorySessionStore(100_000),
+        1024, 64 * 1024, 10_000
+    );
+    private static final SessionEncoder<LazySession<Map<String, String>>> LAZY_ENCODER = new RecordedSessionEncoder<>(
+        new PreValidatingSessionEncoder<>(
+            HYBRID_ENCODER,
+            TokenShapes.hybrid(TokenShapes.lazy(1024))
+        ), "Map", "header"
+    );
+
+    // opt-in allocation accounting of the session directives, see GET /allocations
+    private static final AllocationAccounting<LazySession<Map<String, String>>> ALLOCATIONS = new AllocationAccounting<>("Map");
+
+    private OneOff<LazySession<Map<String, String>>> oneOffSession;
     private SetSessionTransport sessionTransport;
+    private TokenReader tokens;
 
     private MapTypeSession() {
         super(new SessionManager<>(
                 SessionConfig.defaultConfig(SECRET),
-                BASIC_ENCODER
+                LAZY_ENCODER
             )
         );
         oneOffSession = new OneOff<>(getSessionManager());
         sessionTransport = HeaderST;
+        tokens = new TokenReader(getSessionManager().config(), sessionTransport);
     }
 
     public static void main(String[] args) throws IOException {
@@ -62,8 +94,13 @@ public class MapTypeSession extends HttpSessionAwareDirectives<Map<String, Strin
         // ** akka-http-session setup **
         final MapTypeSession app = new MapTypeSession();
 
-        // ** akka-http boiler plate continued **
-        final Flow<HttpRequest, HttpResponse, NotUsed> routes = app.createRoutes().flow(system, materializer);
+        // ** optional JIT warm-up, before the port is bound, on routes which are not recorded **
+        Warmup.warmUp(app.createRoutes().flow(system, materializer), materializer, script(app.getSessionManager().config()));
+
+        // ** akka-http boiler plate continued, with the optional traffic recording **
+        final Flow<HttpRequest, HttpResponse, NotUsed> routes = TrafficRecorder.record("Map", app.getSessionManager().config(), app.createRoutes())
+            .flow(system, materializer);
+
         final CompletionStage<ServerBinding> binding = http.bindAndHandle(routes, ConnectHttp.toHost("localhost", 8080), materializer);
 
         System.out.println("Server started, press enter to stop");
@@ -74,16 +111,34 @@ public class MapTypeSession extends HttpSessionAwareDirectives<Map<String, Strin
             .thenAccept(unbound -> system.terminate());
     }
 
+    /**
+     * The requests of the JIT warm-up and of the benchmarks.
+     */
+    public static Script script(SessionConfig config) {
+        return new Script(config)
+            .post("/api/do_login", "key1,value1:k2,v2")
+            .get("/api/current_login");
+    }
+
+    /**
+     * The routes and the request script of the example, as the benchmarks run it.
+     */
+    public static Example example(ActorSystem system) {
+        MapTypeSession app = new MapTypeSession();
+        return new Example(app.createRoutes(), script(app.getSessionManager().config()));
+    }
+
     private Route createRoutes() {
         return
             route(
+                ALLOCATIONS.report(),
                 pathPrefix("api", () ->
                     route(
                         path("do_login", () ->
                             post(() ->
                                 entity(Unmarshaller.entityToString(), body -> {
                                         LOGGER.info("Logging in {}", body);
-                                        return setSession(oneOffSession, sessionTransport, stringToMap(body), () ->
+                                        return ALLOCATIONS.measure("do_login", "setSession", next -> setSession(oneOffSession, sessionTransport, LazySession.of(stringToMap(body)), next), () ->
                                             extractRequestContext(ctx ->
                                                 onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
                                                     complete("ok")
@@ -95,14 +150,35 @@ public class MapTypeSession extends HttpSessionAwareDirectives<Map<String, Strin
                             )
                         ),
 
+                        // This should be protected and accessible only when logged in
+                        path("do_logout", () ->
+                            post(() ->
+                                requiredSession(oneOffSession, sessionTransport, session ->
+                                    extractRequest(request -> {
+                                            // the server-side copy of a large session goes as well, so that its token cannot be replayed
+                                            tokens.session(request).ifPresent(token -> HYBRID_ENCODER.remove(token, getSessionManager().config()));
+                                            return invalidateSession(oneOffSession, sessionTransport, () -> {
+                                                LOGGER.info("Logging out {}", session);
+                                                return complete("ok");
+                                            });
+                                        }
+                                    )
+                                )
+                            )
+                        ),
+
                         // This should be protected and accessible only when logged in
                         path("current_login", () ->
                             get(() ->
-                                requiredSession(oneOffSession, sessionTransport, session ->
+                                ALLOCATIONS.measure("current_login", "requiredSession", next -> requiredSession(oneOffSession, sessionTransport, next), session ->
                                     extractRequestContext(ctx -> {
                                             LOGGER.info("Current session: " + session);
                                             return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
-                                                complete(session.get("key1"))
+                                                // key1 is read from the token itself, the map is never deserialized
+                                                complete(session.read(
+                                                    serialized -> IndexedMapSessionSerializer.lookup(serialized, "key1"),
+                                                    map -> map.get("key1")
+                                                ))
                                             );
                                         }
                                     )
@@ -21,6 +21,14 @@ import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
 import com.softwaremill.session.javadsl.SessionSerializers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import session.instrumentation.AllocationAccounting;
+import session.instrumentation.RecordedSessionEncoder;
+import session.traffic.TrafficRecorder;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShapes;
+import session.warmup.Example;
+import session.warmup.Script;
+import session.warmup.Warmup;
 
 import java.io.IOException;
 import java.util.concurrent.CompletionStage;
@@ -36,7 +44,15 @@ public class StringTypeSession extends HttpSessionAwareDirectives<String> {
     // ***************************************************** //
     // This is where the Session Data Type is set to String //
     // ***************************************************** //
-    private static final SessionEncoder<String> BASIC_ENCODER = new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer);
+    private static final SessionEncoder<String> BASIC_ENCODER = new RecordedSessionEncoder<>(
+        new PreValidatingSessionEncoder<>(
+            new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer),
+            TokenShapes.basic(4096)
+        ), "String", "header"
+    );
+
+    // opt-in allocation accounting of the session directives, see GET /allocations
+    private static final AllocationAccounting<String> ALLOCATIONS = new AllocationAccounting<>("String");
 
     private OneOff<String> oneOffSession;
     private SetSessionTransport sessionTransport;
@@ -61,8 +77,13 @@ public class StringTypeSession extends HttpSessionAwareDirectives<String> {
         // ** akka-http-session setup **
         final StringTypeSession app = new StringTypeSession();
 
-        // ** akka-http boiler plate continued **
-        final Flow<HttpRequest, HttpResponse, NotUsed> routes = app.createRoutes().flow(system, materializer);
+        // ** optional JIT warm-up, before the port is bound, on routes which are not recorded **
+        Warmup.warmUp(app.createRoutes().flow(system, materializer), materializer, script(app.getSessionManager().config()));
+
+        // ** akka-http boiler plate continued, with the optional traffic recording **
+        final Flow<HttpRequest, HttpResponse, NotUsed> routes = TrafficRecorder.record("String", app.getSessionManager().config(), app.createRoutes())
+            .flow(system, materializer);
+
         final CompletionStage<ServerBinding> binding = http.bindAndHandle(routes, ConnectHttp.toHost("localhost", 8080), materializer);
 
         System.out.println("Server started, press enter to stop");
@@ -73,16 +94,33 @@ public class StringTypeSession extends HttpSessionAwareDirectives<String> {
             .thenAccept(unbound -> system.terminate());
     }
 
+    /**
+     * The requests of the JIT warm-up and of the benchmarks.
+     */
+    public static Script script(SessionConfig config) {
+        return new Script(config)
+            .post("/api/do_login", "a string type");
+    }
+
+    /**
+     * The routes and the request script of the example, as the benchmarks run it.
+     */
+    public static Example example(ActorSystem system) {
+        StringTypeSession app = new StringTypeSession();
+        return new Example(app.createRoutes(), script(app.getSessionManager().config()));
+    }
+
     private Route createRoutes() {
         return
             route(
+                ALLOCATIONS.report(),
                 pathPrefix("api", () ->
                     route(
                         path("do_login", () ->
                             post(() ->
                                 entity(Unmarshaller.entityToString(), body -> {
                                         LOGGER.info("Logging in {}", body);
-                                        return setSession(oneOffSession, sessionTransport, body, () ->
+                                        return ALLOCATIONS.measure("do_login", "setSession", next -> setSession(oneOffSession, sessionTransport, body, next), () ->
                                             extractRequestContext(ctx ->
                                                 onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
                                                     complete("ok")
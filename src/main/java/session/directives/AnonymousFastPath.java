@@ -0,0 +1,59 @@
+package session.directives;
+
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionResult;
+import com.softwaremill.session.SetSessionTransport;
+import session.transport.TokenReader;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Short-circuits the session directives for anonymous requests, i.e. requests carrying neither a session nor a refresh token.
+ * <p>
+ * optionalSession and session read the transport, wrap the token in Options, decode nothing, and still end in a Future of
+ * NoSession which the route has to wait for. For anonymous requests this fast path only scans the headers for the token names and
+ * passes the inner route the shared results, {@link Optional#empty()} or {@link SessionResult.NoSession$}. Requests with a token,
+ * valid or not, go through the wrapped directive as before, so the results are the same either way.
+ */
+public class AnonymousFastPath<T> extends AllDirectives {
+
+    private static final SessionResult<?> NO_SESSION = SessionResult.NoSession$.MODULE$;
+
+    private final TokenReader tokens;
+
+    public AnonymousFastPath(SessionConfig config, SetSessionTransport transport) {
+        this.tokens = new TokenReader(config, transport);
+    }
+
+    /**
+     * Wraps an optionalSession directive, e.g. {@code optionalSession(next -> optionalSession(continuity, transport, next), session -> ...)}.
+     */
+    public Route optionalSession(Function<Function<Optional<T>, Route>, Route> directive, Function<Optional<T>, Route> inner) {
+        return
+            extractRequest(request ->
+                isAnonymous(request) ? inner.apply(Optional.empty()) : directive.apply(inner)
+            );
+    }
+
+    /**
+     * Wraps a session directive, e.g. {@code session(next -> session(continuity, transport, next), session -> ...)}.
+     */
+    @SuppressWarnings("unchecked")
+    public Route session(Function<Function<SessionResult<T>, Route>, Route> directive, Function<SessionResult<T>, Route> inner) {
+        return
+            extractRequest(request ->
+                isAnonymous(request) ? inner.apply((SessionResult<T>) NO_SESSION) : directive.apply(inner)
+            );
+    }
+
+    /**
+     * True if the request carries neither the session nor the refresh token.
+     */
+    public boolean isAnonymous(HttpRequest request) {
+        return !tokens.carriesEither(request);
+    }
+}
@@ -21,6 +21,12 @@ import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
 import com.softwaremill.session.javadsl.SessionSerializers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import session.traffic.TrafficRecorder;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShapes;
+import session.warmup.Example;
+import session.warmup.Script;
+import session.warmup.Warmup;
 
 import java.io.IOException;
 import java.util.concurrent.CompletionStage;
@@ -32,10 +38,14 @@ public class OptionalSessionDirective extends HttpSessionAwareDirectives<String>
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OptionalSessionDirective.class);
     private static final String SECRET = "c05ll3lesrinf39t7mc5h6un6r0c69lgfno69dsak3vabeqamouq4328cuaekros401ajdpkh60rrtpd8ro24rbuqmgtnd1ebag6ljnb65i8a55d482ok7o0nch0bfbe";
-    private static final SessionEncoder<String> BASIC_ENCODER = new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer);
+    private static final SessionEncoder<String> BASIC_ENCODER = new PreValidatingSessionEncoder<>(
+        new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer),
+        TokenShapes.basic(4096)
+    );
 
     private OneOff<String> oneOffSession;
     private SetSessionTransport sessionTransport;
+    private AnonymousFastPath<String> anonymous;
 
     private OptionalSessionDirective() {
         super(new SessionManager<>(
@@ -45,6 +55,10 @@ public class OptionalSessionDirective extends HttpSessionAwareDirectives<String>
         );
         oneOffSession = new OneOff<>(getSessionManager());
         sessionTransport = HeaderST;
+        // **************************************************************************** //
+        // Requests without a session or refresh token skip the session directive below //
+        // **************************************************************************** //
+        anonymous = new AnonymousFastPath<>(getSessionManager().config(), sessionTransport);
     }
 
     public static void main(String[] args) throws IOException {
@@ -57,8 +71,13 @@ public class OptionalSessionDirective extends HttpSessionAwareDirectives<String>
         // ** akka-http-session setup **
         final OptionalSessionDirective app = new OptionalSessionDirective();
 
-        // ** akka-http boiler plate continued **
-        final Flow<HttpRequest, HttpResponse, NotUsed> routes = app.createRoutes().flow(system, materializer);
+        // ** optional JIT warm-up, before the port is bound, on routes which are not recorded **
+        Warmup.warmUp(app.createRoutes().flow(system, materializer), materializer, script(app.getSessionManager().config()));
+
+        // ** akka-http boiler plate continued, with the optional traffic recording **
+        final Flow<HttpRequest, HttpResponse, NotUsed> routes = TrafficRecorder.record("String", app.getSessionManager().config(), app.createRoutes())
+            .flow(system, materializer);
+
         final CompletionStage<ServerBinding> binding = http.bindAndHandle(routes, ConnectHttp.toHost("localhost", 8080), materializer);
 
         System.out.println("Server started, press enter to stop");
@@ -69,6 +88,23 @@ public class OptionalSessionDirective extends HttpSessionAwareDirectives<String>
             .thenAccept(unbound -> system.terminate());
     }
 
+    /**
+     * The requests of the JIT warm-up and of the benchmarks.
+     */
+    public static Script script(SessionConfig config) {
+        return new Script(config)
+            .post("/api/do_login", "my_login")
+            .get("/api/current_login");
+    }
+
+    /**
+     * The routes and the request script of the example, as the benchmarks run it.
+     */
+    public static Example example(ActorSystem system) {
+        OptionalSessionDirective app = new OptionalSessionDirective();
+        return new Example(app.createRoutes(), script(app.getSessionManager().config()));
+    }
+
     private Route createRoutes() {
         return
             route(
@@ -92,7 +128,7 @@ public class OptionalSessionDirective extends HttpSessionAwareDirectives<String>
 
                         path("current_login", () ->
                             get(() ->
-                                optionalSession(oneOffSession, sessionTransport, session ->
+                                anonymous.optionalSession(next -> optionalSession(oneOffSession, sessionTransport, next), session ->
                                     extractRequestContext(ctx -> {
                                             LOGGER.info("Current session: " + session);
                                             return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
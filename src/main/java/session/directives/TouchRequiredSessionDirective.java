@@ -21,6 +21,13 @@ import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
 import com.softwaremill.session.javadsl.SessionSerializers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import session.instrumentation.AllocationAccounting;
+import session.traffic.TrafficRecorder;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShapes;
+import session.warmup.Example;
+import session.warmup.Script;
+import session.warmup.Warmup;
 
 import java.io.IOException;
 import java.util.concurrent.CompletionStage;
@@ -32,7 +39,13 @@ public class TouchRequiredSessionDirective extends HttpSessionAwareDirectives<St
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TouchRequiredSessionDirective.class);
     private static final String SECRET = "c05ll3lesrinf39t7mc5h6un6r0c69lgfno69dsak3vabeqamouq4328cuaekros401ajdpkh60rrtpd8ro24rbuqmgtnd1ebag6ljnb65i8a55d482ok7o0nch0bfbe";
-    private static final SessionEncoder<String> BASIC_ENCODER = new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer);
+    private static final SessionEncoder<String> BASIC_ENCODER = new PreValidatingSessionEncoder<>(
+        new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer),
+        TokenShapes.basic(4096)
+    );
+
+    // opt-in allocation accounting of the session directives, see GET /allocations
+    private static final AllocationAccounting<String> ALLOCATIONS = new AllocationAccounting<>("String");
 
     private OneOff<String> oneOffSession;
     private SetSessionTransport sessionTransport;
@@ -61,8 +74,13 @@ public class TouchRequiredSessionDirective extends HttpSessionAwareDirectives<St
         // ** akka-http-session setup **
         final TouchRequiredSessionDirective app = new TouchRequiredSessionDirective();
 
-        // ** akka-http boiler plate continued **
-        final Flow<HttpRequest, HttpResponse, NotUsed> routes = app.createRoutes().flow(system, materializer);
+        // ** optional JIT warm-up, before the port is bound, on routes which are not recorded **
+        Warmup.warmUp(app.createRoutes().flow(system, materializer), materializer, script(app.getSessionManager().config()));
+
+        // ** akka-http boiler plate continued, with the optional traffic recording **
+        final Flow<HttpRequest, HttpResponse, NotUsed> routes = TrafficRecorder.record("String", app.getSessionManager().config(), app.createRoutes())
+            .flow(system, materializer);
+
         final CompletionStage<ServerBinding> binding = http.bindAndHandle(routes, ConnectHttp.toHost("localhost", 8080), materializer);
 
         System.out.println("Server started, press enter to stop");
@@ -73,16 +91,35 @@ public class TouchRequiredSessionDirective extends HttpSessionAwareDirectives<St
             .thenAccept(unbound -> system.terminate());
     }
 
+    /**
+     * The requests of the JIT warm-up and of the benchmarks.
+     */
+    public static Script script(SessionConfig config) {
+        return new Script(config)
+            .post("/api/do_login", "my_login")
+            .post("/api/touch", "")
+            .get("/api/current_login");
+    }
+
+    /**
+     * The routes and the request script of the example, as the benchmarks run it.
+     */
+    public static Example example(ActorSystem system) {
+        TouchRequiredSessionDirective app = new TouchRequiredSessionDirective();
+        return new Example(app.createRoutes(), script(app.getSessionManager().config()));
+    }
+
     private Route createRoutes() {
         return
             route(
+                ALLOCATIONS.report(),
                 pathPrefix("api", () ->
                     route(
                         path("do_login", () ->
                             post(() ->
                                 entity(Unmarshaller.entityToString(), body -> {
                                         LOGGER.info("Logging in {}", body);
-                                        return setSession(oneOffSession, sessionTransport, body, () ->
+                                        return ALLOCATIONS.measure("do_login", "setSession", next -> setSession(oneOffSession, sessionTransport, body, next), () ->
                                             extractRequestContext(ctx ->
                                                 onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
                                                     complete("ok")
@@ -97,7 +134,7 @@ public class TouchRequiredSessionDirective extends HttpSessionAwareDirectives<St
                         // This should be protected and accessible only when logged in
                         path("touch", () ->
                             post(() ->
-                                touchRequiredSession(oneOffSession, sessionTransport, session ->
+                                ALLOCATIONS.measure("touch", "touchRequiredSession", next -> touchRequiredSession(oneOffSession, sessionTransport, next), session ->
                                     extractRequestContext(ctx -> {
                                             LOGGER.info("Touching {}", session);
                                             return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
@@ -112,7 +149,7 @@ public class TouchRequiredSessionDirective extends HttpSessionAwareDirectives<St
                         // This should be protected and accessible only when logged in
                         path("current_login", () ->
                             get(() ->
-                                requiredSession(oneOffSession, sessionTransport, session ->
+                                ALLOCATIONS.measure("current_login", "requiredSession", next -> requiredSession(oneOffSession, sessionTransport, next), session ->
                                     extractRequestContext(ctx -> {
                                             LOGGER.info("Current session: " + session);
                                             return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
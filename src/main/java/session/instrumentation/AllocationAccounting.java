@@ -0,0 +1,145 @@
+package session.instrumentation;
+
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Measures the bytes allocated by session directives, per route and directive.
+ * <p>
+ * A measured directive reads the thread's allocated bytes counter when the request reaches it, and again when the directive hands over
+ * to its inner route. The difference is what the directive allocated for that request: reading headers or cookies, decoding or encoding
+ * the session, and building the routes in between. If the directive continued on another thread (e.g. waiting for a refresh token
+ * lookup), the sample cannot be attributed and is only counted as skipped.
+ * <p>
+ * The numbers are keyed by the route and directive names given in the code, never by anything taken from the request, so a client
+ * cannot grow them by requesting arbitrary paths.
+ * <p>
+ * The accounting is opt-in, by starting the example with -Dsession.allocations=true. Otherwise the directives are not wrapped at all.
+ * The aggregated numbers are served as plain text by {@link #report()}.
+ *
+ * @param <T> the session type of the example
+ */
+public class AllocationAccounting<T> extends AllDirectives {
+
+    public static final boolean ENABLED = Boolean.getBoolean("session.allocations");
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final String sessionType;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * @param sessionType the label of the session type in the report, e.g. String, Long, Map, CustomType or JWT
+     */
+    public AllocationAccounting(String sessionType) {
+        this.sessionType = sessionType;
+    }
+
+    /**
+     * Measures a directive which passes the session to its inner route, e.g.
+     * {@code measure("current_login", "requiredSession", next -> requiredSession(continuity, transport, next), session -> ...)}.
+     */
+    public Route measure(String route, String directive, Function<Function<T, Route>, Route> measured, Function<T, Route> inner) {
+        if (!ENABLED)
+            return measured.apply(inner);
+        Counter counter = counter(route, directive);
+        return
+            extractRequestContext(ctx -> {
+                    Thread thread = Thread.currentThread();
+                    long before = THREADS.getThreadAllocatedBytes(thread.getId());
+                    return measured.apply(session -> {
+                        record(counter, thread, before);
+                        return inner.apply(session);
+                    });
+                }
+            );
+    }
+
+    /**
+     * Measures a directive without a value for its inner route, e.g.
+     * {@code measure("do_login", "setSession", next -> setSession(continuity, transport, session, next), () -> ...)}.
+     */
+    public Route measure(String route, String directive, Function<Supplier<Route>, Route> measured, Supplier<Route> inner) {
+        if (!ENABLED)
+            return measured.apply(inner);
+        Counter counter = counter(route, directive);
+        return
+            extractRequestContext(ctx -> {
+                    Thread thread = Thread.currentThread();
+                    long before = THREADS.getThreadAllocatedBytes(thread.getId());
+                    return measured.apply(() -> {
+                        record(counter, thread, before);
+                        return inner.get();
+                    });
+                }
+            );
+    }
+
+    /**
+     * Serves the numbers collected so far under GET /allocations, sorted by route and directive.
+     */
+    public Route report() {
+        return
+            path("allocations", () ->
+                get(() ->
+                    complete(render())
+                )
+            );
+    }
+
+    private Counter counter(String route, String directive) {
+        return counters.computeIfAbsent(route + " " + directive, key -> new Counter(route, directive));
+    }
+
+    private static void record(Counter counter, Thread thread, long before) {
+        if (Thread.currentThread() != thread) {
+            counter.skipped.increment();
+            return;
+        }
+        counter.bytes.add(THREADS.getThreadAllocatedBytes(thread.getId()) - before);
+        counter.samples.increment();
+    }
+
+    private String render() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-10s %-16s %-26s %10s %10s %14s%n", "session", "route", "directive", "samples", "skipped", "bytes/request"));
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            Counter counter = entry.getValue();
+            long samples = counter.samples.sum();
+            out.append(String.format("%-10s %-16s %-26s %10d %10d %14d%n",
+                sessionType, counter.route, counter.directive, samples, counter.skipped.sum(), samples == 0 ? 0 : counter.bytes.sum() / samples));
+        }
+        if (!ENABLED)
+            out.append("Allocation accounting is off, start with -Dsession.allocations=true\n");
+        return out.toString();
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (ENABLED && threads.isThreadAllocatedMemorySupported())
+            threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    private static final class Counter {
+
+        private final String route;
+        private final String directive;
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+
+        Counter(String route, String directive) {
+            this.route = route;
+            this.directive = directive;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package session.instrumentation;
+
+import akka.http.javadsl.model.HttpMethods;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Emits a {@link SessionEvents.CsrfCheck} event around a CSRF protection directive, e.g.
+ * {@code check(next -> randomTokenCsrfProtection(checkHeader, next), () -> ...)}.
+ * The check passed if the directive hands over to its inner route, and was rejected otherwise. GET requests are not checked by
+ * the CSRF directives, and are reported as skipped.
+ */
+public class RecordedCsrfCheck extends AllDirectives {
+
+    private final String sessionType;
+    private final String transport;
+
+    /**
+     * @param sessionType the label of the session type, e.g. String
+     * @param transport   cookie or header
+     */
+    public RecordedCsrfCheck(String sessionType, String transport) {
+        this.sessionType = sessionType;
+        this.transport = transport;
+    }
+
+    public Route check(Function<Supplier<Route>, Route> csrfDirective, Supplier<Route> inner) {
+        return
+            extractRequest(request -> {
+                    SessionEvents.CsrfCheck event = new SessionEvents.CsrfCheck();
+                    if (!event.isEnabled())
+                        return csrfDirective.apply(inner);
+                    event.begin();
+                    AtomicBoolean passed = new AtomicBoolean();
+                    return mapRejections(rejections -> {
+                            if (!passed.get())
+                                commit(event, "rejected");
+                            return rejections;
+                        }, () ->
+                        csrfDirective.apply(() -> {
+                            passed.set(true);
+                            commit(event, isSafe(request) ? "skipped" : "passed");
+                            return inner.get();
+                        })
+                    );
+                }
+            );
+    }
+
+    /**
+     * Records a check done by a directive which reads the CSRF token itself, and returns whether it passed. The check is only run
+     * for unsafe methods, within the event.
+     */
+    public boolean record(boolean safe, BooleanSupplier check) {
+        SessionEvents.CsrfCheck event = new SessionEvents.CsrfCheck();
+        event.begin();
+        boolean passed = safe || check.getAsBoolean();
+        commit(event, safe ? "skipped" : passed ? "passed" : "rejected");
+        return passed;
+    }
+
+    private void commit(SessionEvents.CsrfCheck event, String outcome) {
+        if (event.shouldCommit()) {
+            event.sessionType = sessionType;
+            event.transport = transport;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    private static boolean isSafe(HttpRequest request) {
+        return request.method().equals(HttpMethods.GET);
+    }
+}
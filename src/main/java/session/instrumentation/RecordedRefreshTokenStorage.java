@@ -0,0 +1,91 @@
+package session.instrumentation;
+
+import akka.dispatch.ExecutionContexts;
+import akka.dispatch.OnComplete;
+import com.softwaremill.session.RefreshTokenData;
+import com.softwaremill.session.RefreshTokenLookupResult;
+import com.softwaremill.session.RefreshTokenStorage;
+import scala.Function0;
+import scala.Option;
+import scala.concurrent.Future;
+import scala.concurrent.duration.Duration;
+import scala.runtime.BoxedUnit;
+
+import java.util.function.BiFunction;
+
+/**
+ * A RefreshTokenStorage which emits a {@link SessionEvents.RefreshToken} event for every lookup, store and remove of another storage.
+ * Each event lasts until the returned Future completed, and is committed on the thread which completed it, so the thread which
+ * started the operation is recorded as its Calling Thread. A refresh rotates the token: a lookup of the used one, a store of its
+ * successor and, later, a remove of the used one.
+ */
+public class RecordedRefreshTokenStorage<T> implements RefreshTokenStorage<T> {
+
+    private final RefreshTokenStorage<T> delegate;
+    private final String sessionType;
+    private final String transport;
+
+    /**
+     * @param sessionType the label of the session type, e.g. String
+     * @param transport   cookie or header
+     */
+    public RecordedRefreshTokenStorage(RefreshTokenStorage<T> delegate, String sessionType, String transport) {
+        this.delegate = delegate;
+        this.sessionType = sessionType;
+        this.transport = transport;
+    }
+
+    @Override
+    public Future<Option<RefreshTokenLookupResult<T>>> lookup(String selector) {
+        SessionEvents.RefreshToken event = new SessionEvents.RefreshToken();
+        if (!event.isEnabled())
+            return delegate.lookup(selector);
+        event.begin();
+        return record(event, "lookup", delegate.lookup(selector), (found, failure) ->
+            failure != null ? "failed" : found.isDefined() ? "found" : "missing"
+        );
+    }
+
+    @Override
+    public Future<BoxedUnit> store(RefreshTokenData<T> data) {
+        SessionEvents.RefreshToken event = new SessionEvents.RefreshToken();
+        if (!event.isEnabled())
+            return delegate.store(data);
+        event.begin();
+        return record(event, "store", delegate.store(data), (unit, failure) -> failure != null ? "failed" : "stored");
+    }
+
+    @Override
+    public Future<BoxedUnit> remove(String selector) {
+        SessionEvents.RefreshToken event = new SessionEvents.RefreshToken();
+        if (!event.isEnabled())
+            return delegate.remove(selector);
+        event.begin();
+        return record(event, "remove", delegate.remove(selector), (unit, failure) -> failure != null ? "failed" : "removed");
+    }
+
+    @Override
+    public <S> void schedule(Duration after, Function0<Future<S>> op) {
+        delegate.schedule(after, op);
+    }
+
+    private <R> Future<R> record(SessionEvents.RefreshToken event, String operation, Future<R> future,
+                                 BiFunction<R, Throwable, String> outcome) {
+        Thread callingThread = Thread.currentThread();
+        future.onComplete(new OnComplete<R>() {
+            @Override
+            public void onComplete(Throwable failure, R result) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.sessionType = sessionType;
+                    event.transport = transport;
+                    event.operation = operation;
+                    event.callingThread = callingThread;
+                    event.outcome = outcome.apply(result, failure);
+                    event.commit();
+                }
+            }
+        }, ExecutionContexts.sameThreadExecutionContext());
+        return future;
+    }
+}
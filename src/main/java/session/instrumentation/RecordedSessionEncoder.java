@@ -0,0 +1,83 @@
+package session.instrumentation;
+
+import com.softwaremill.session.DecodeResult;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionEncoder;
+import scala.util.Try;
+
+/**
+ * A SessionEncoder which emits {@link SessionEvents.Encode} and {@link SessionEvents.Decode} events around another encoder.
+ * The events are labelled with the session type and transport of the example, as the encoder itself knows neither; so are the
+ * {@link SessionEvents.Verify} events of the signature check within the decode.
+ */
+public class RecordedSessionEncoder<T> implements SessionEncoder<T> {
+
+    private final SessionEncoder<T> delegate;
+    private final String sessionType;
+    private final String transport;
+    private final String[] labels;
+
+    /**
+     * @param sessionType the label of the session type, e.g. String, Long, Map, CustomType or JWT
+     * @param transport   cookie or header
+     */
+    public RecordedSessionEncoder(SessionEncoder<T> delegate, String sessionType, String transport) {
+        this.delegate = delegate;
+        this.sessionType = sessionType;
+        this.transport = transport;
+        this.labels = new String[]{sessionType, transport};
+    }
+
+    @Override
+    public String encode(T session, long nowMillis, SessionConfig config) {
+        SessionEvents.Encode event = new SessionEvents.Encode();
+        event.begin();
+        String outcome = "failed";
+        try {
+            String token = delegate.encode(session, nowMillis, config);
+            outcome = "encoded";
+            return token;
+        } finally {
+            if (event.shouldCommit()) {
+                event.sessionType = sessionType;
+                event.transport = transport;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public Try<DecodeResult<T>> decode(String token, SessionConfig config) {
+        SessionEvents.Decode event = new SessionEvents.Decode();
+        event.begin();
+        boolean labelVerify = new SessionEvents.Verify().isEnabled();
+        if (labelVerify)
+            SessionEvents.Verify.labels(labels);
+        Try<DecodeResult<T>> result;
+        try {
+            result = delegate.decode(token, config);
+        } finally {
+            if (labelVerify)
+                SessionEvents.Verify.labels(null);
+        }
+        if (event.shouldCommit()) {
+            event.sessionType = sessionType;
+            event.transport = transport;
+            event.outcome = outcome(result);
+            event.commit();
+        }
+        return result;
+    }
+
+    private static String outcome(Try<? extends DecodeResult<?>> result) {
+        if (result.isFailure())
+            return "malformed";
+        DecodeResult<?> decoded = result.get();
+        if (decoded.expires().isDefined() && (Long) decoded.expires().get() < System.currentTimeMillis())
+            return "expired";
+        if (!decoded.signatureMatches())
+            return "invalid-signature";
+        return decoded.isLegacy() ? "legacy" : "valid";
+    }
+}
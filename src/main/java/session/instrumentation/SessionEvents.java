@@ -0,0 +1,157 @@
+package session.instrumentation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Java Flight Recorder events of the session examples, all in the "Session" category.
+ * <p>
+ * The events follow the usual JFR pattern: an event is created and begun before the work, and committed after it if
+ * {@link Event#shouldCommit()} holds. When no recording enables them, isEnabled() and shouldCommit() are constant false for the JIT,
+ * the event objects do not escape and are not allocated, so the instrumented code runs as if it was not instrumented.
+ * Enable them with e.g. -XX:StartFlightRecording=settings=profile, or per event type in a custom .jfc file.
+ */
+public final class SessionEvents {
+
+    private SessionEvents() {
+    }
+
+    @Category("Session")
+    @StackTrace(false)
+    abstract static class SessionEvent extends Event {
+
+        @Label("Session Type")
+        String sessionType;
+
+        @Label("Transport")
+        @Description("cookie or header")
+        String transport;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("session.Encode")
+    @Label("Session Encode")
+    @Description("A session was encoded into a token")
+    public static final class Encode extends SessionEvent {
+    }
+
+    @Name("session.Decode")
+    @Label("Session Decode")
+    @Description("A session token was decoded: valid, invalid-signature, legacy, expired or malformed")
+    public static final class Decode extends SessionEvent {
+    }
+
+    @Name("session.Verify")
+    @Label("Session Signature Verification")
+    @Description("The signature of a session token was checked, within the Session Decode event of the same thread")
+    public static final class Verify extends SessionEvent {
+
+        // the session type and transport of the decode in progress on this thread, as the encoders which check signatures know neither
+        private static final ThreadLocal<String[]> DECODING = new ThreadLocal<>();
+
+        /**
+         * Commits the event with the outcome valid or invalid-signature, if it is enabled.
+         */
+        public void commit(boolean signatureMatches) {
+            if (shouldCommit()) {
+                String[] labels = DECODING.get();
+                if (labels != null) {
+                    sessionType = labels[0];
+                    transport = labels[1];
+                }
+                outcome = signatureMatches ? "valid" : "invalid-signature";
+                commit();
+            }
+        }
+
+        /**
+         * Labels the Verify events of this thread with the session type and transport, until {@link #labels(String[])} is called
+         * again with null.
+         */
+        static void labels(String[] labels) {
+            if (labels == null)
+                DECODING.remove();
+            else
+                DECODING.set(labels);
+        }
+    }
+
+    @Name("session.RefreshToken")
+    @Label("Refresh Token Storage")
+    @Description("A refresh token lookup, store (a rotation issuing a new token) or remove, until its Future completed. The event "
+        + "is committed by the thread which completed the Future; the thread which started the operation is the Calling Thread")
+    public static final class RefreshToken extends SessionEvent {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Calling Thread")
+        Thread callingThread;
+    }
+
+    @Name("session.CsrfCheck")
+    @Label("CSRF Token Check")
+    @Description("The CSRF token of a request was checked: passed, rejected, or skipped for safe methods")
+    public static final class CsrfCheck extends SessionEvent {
+    }
+
+    @Name("session.TokenRefill")
+    @Label("Token Buffer Refill")
+    @Description("A block of random bytes for tokens was generated in the background; the duration is the refill latency")
+    @Category("Session")
+    @StackTrace(false)
+    public static final class TokenRefill extends Event {
+
+        @Label("Bytes")
+        int bytes;
+
+        public void commit(int bytes) {
+            if (shouldCommit()) {
+                this.bytes = bytes;
+                commit();
+            }
+        }
+    }
+
+    @Name("session.TokenExhausted")
+    @Label("Token Buffer Exhausted")
+    @Description("A shard of the token buffers had no random bytes left, and a token was generated on the request thread")
+    @Category("Session")
+    @StackTrace(false)
+    public static final class TokenExhausted extends Event {
+
+        @Label("Shard")
+        int shard;
+
+        public void commit(int shard) {
+            if (shouldCommit()) {
+                this.shard = shard;
+                commit();
+            }
+        }
+    }
+
+    @Name("session.TokenRejected")
+    @Label("Session Token Rejected")
+    @Description("A session token was rejected by its length, structure or plaintext expiry, before its signature was checked")
+    @Category("Session")
+    @StackTrace(false)
+    public static final class TokenRejected extends Event {
+
+        @Label("Reason")
+        String reason;
+
+        public void commit(String reason) {
+            if (shouldCommit()) {
+                this.reason = reason;
+                commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package session.jwt;
+
+/**
+ * The claims of a JWT session token, as projected by the {@link ProjectingJwtSessionEncoder}: the registered claims, the session
+ * data and the declared custom claims. Claims which are not in the token are null, or {@link #ABSENT} for the times.
+ * <p>
+ * String claims are unescaped; other values (numbers, objects, arrays) are kept as their JSON text.
+ */
+public final class JwtClaims {
+
+    public static final long ABSENT = -1L;
+
+    String issuer;
+    String subject;
+    String audience;
+    String jwtId;
+    String data;
+    long expiresAt = ABSENT;
+    long notBefore = ABSENT;
+    long issuedAt = ABSENT;
+
+    private final String[] customNames;
+    final String[] customValues;
+
+    JwtClaims(String[] customNames) {
+        this.customNames = customNames;
+        this.customValues = new String[customNames.length];
+    }
+
+    /**
+     * The iss claim.
+     */
+    public String issuer() {
+        return issuer;
+    }
+
+    /**
+     * The sub claim.
+     */
+    public String subject() {
+        return subject;
+    }
+
+    /**
+     * The aud claim; a JSON array if there is more than one audience.
+     */
+    public String audience() {
+        return audience;
+    }
+
+    /**
+     * The jti claim.
+     */
+    public String jwtId() {
+        return jwtId;
+    }
+
+    /**
+     * The data claim, which holds the serialized session.
+     */
+    public String data() {
+        return data;
+    }
+
+    /**
+     * The exp claim, in seconds since the epoch.
+     */
+    public long expiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * The nbf claim, in seconds since the epoch.
+     */
+    public long notBefore() {
+        return notBefore;
+    }
+
+    /**
+     * The iat claim, in seconds since the epoch.
+     */
+    public long issuedAt() {
+        return issuedAt;
+    }
+
+    /**
+     * A declared custom claim.
+     */
+    public String claim(String name) {
+        for (int i = 0; i < customNames.length; i++) {
+            if (customNames[i].equals(name))
+                return customValues[i];
+        }
+        throw new IllegalArgumentException("Claim not declared: " + name);
+    }
+}
@@ -21,6 +21,15 @@ import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
 import com.softwaremill.session.javadsl.JwtSessionSerializers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import session.assets.PreloadedAssets;
+import session.instrumentation.AllocationAccounting;
+import session.instrumentation.RecordedSessionEncoder;
+import session.traffic.TrafficRecorder;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShapes;
+import session.warmup.Example;
+import session.warmup.Script;
+import session.warmup.Warmup;
 
 import java.io.IOException;
 import java.util.concurrent.CompletionStage;
@@ -36,7 +45,24 @@ public class JwtEncodedSession extends HttpSessionAwareDirectives<String> {
     // ***************************************************** //
     // This is where the Session Encoder is set to JWT //
     // ***************************************************** //
-    private static final SessionEncoder<String> JWT_ENCODER = new JwtSessionEncoder<>(JwtSessionSerializers.StringToJValueSessionSerializer, JwtSessionSerializers.DefaultUtcDateFormat);
+    // The JwtSessionEncoder writes the tokens, while decoding only reads the claims the routes need, without a json4s AST
+    private static final SessionEncoder<String> JWT_ENCODER = new RecordedSessionEncoder<>(
+        new PreValidatingSessionEncoder<>(
+            new ProjectingJwtSessionEncoder<>(
+                new JwtSessionEncoder<>(JwtSessionSerializers.StringToJValueSessionSerializer, JwtSessionSerializers.DefaultUtcDateFormat),
+                JwtClaims::data
+            ),
+            TokenShapes.jwt(4096)
+        ), "JWT", "header"
+    );
+
+    // ************************************************************************************* //
+    // The assets under /site are served from memory; other files fall back to the classpath //
+    // ************************************************************************************* //
+    private static final PreloadedAssets SITE_ASSETS = new PreloadedAssets("index.html", "jquery.min.js", "js-cookie.js");
+
+    // opt-in allocation accounting of the session directives, see GET /allocations
+    private static final AllocationAccounting<String> ALLOCATIONS = new AllocationAccounting<>("JWT");
 
     private OneOff<String> oneOffSession;
     private SetSessionTransport sessionTransport;
@@ -61,8 +87,13 @@ public class JwtEncodedSession extends HttpSessionAwareDirectives<String> {
         // ** akka-http-session setup **
         final JwtEncodedSession app = new JwtEncodedSession();
 
-        // ** akka-http boiler plate continued **
-        final Flow<HttpRequest, HttpResponse, NotUsed> routes = app.createRoutes().flow(system, materializer);
+        // ** optional JIT warm-up, before the port is bound, on routes which are not recorded **
+        Warmup.warmUp(app.createRoutes().flow(system, materializer), materializer, script(app.getSessionManager().config()));
+
+        // ** akka-http boiler plate continued, with the optional traffic recording **
+        final Flow<HttpRequest, HttpResponse, NotUsed> routes = TrafficRecorder.record("JWT", app.getSessionManager().config(), app.createRoutes())
+            .flow(system, materializer);
+
         final CompletionStage<ServerBinding> binding = http.bindAndHandle(routes, ConnectHttp.toHost("localhost", 8080), materializer);
 
         System.out.println("Server started, press enter to stop");
@@ -73,16 +104,36 @@ public class JwtEncodedSession extends HttpSessionAwareDirectives<String> {
             .thenAccept(unbound -> system.terminate());
     }
 
+    /**
+     * The requests of the JIT warm-up and of the benchmarks.
+     */
+    public static Script script(SessionConfig config) {
+        return new Script(config)
+            .get("/site/index.html")
+            .post("/api/do_login", "my_login")
+            .get("/api/current_login")
+            .post("/api/do_logout", "");
+    }
+
+    /**
+     * The routes and the request script of the example, as the benchmarks run it.
+     */
+    public static Example example(ActorSystem system) {
+        JwtEncodedSession app = new JwtEncodedSession();
+        return new Example(app.createRoutes(), script(app.getSessionManager().config()));
+    }
+
     private Route createRoutes() {
         return
             route(
+                ALLOCATIONS.report(),
                 pathPrefix("api", () ->
                     route(
                         path("do_login", () ->
                             post(() ->
                                 entity(Unmarshaller.entityToString(), body -> {
                                         LOGGER.info("Logging in {}", body);
-                                        return setSession(oneOffSession, sessionTransport, body, () ->
+                                        return ALLOCATIONS.measure("do_login", "setSession", next -> setSession(oneOffSession, sessionTransport, body, next), () ->
                                             extractRequestContext(ctx ->
                                                 onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
                                                     complete("ok")
@@ -97,7 +148,7 @@ public class JwtEncodedSession extends HttpSessionAwareDirectives<String> {
                         // This should be protected and accessible only when logged in
                         path("do_logout", () ->
                             post(() ->
-                                requiredSession(oneOffSession, sessionTransport, session ->
+                                ALLOCATIONS.measure("do_logout", "requiredSession", next -> requiredSession(oneOffSession, sessionTransport, next), session ->
                                     invalidateSession(oneOffSession, sessionTransport, () ->
                                         extractRequestContext(ctx -> {
                                                 LOGGER.info("Logging out {}", session);
@@ -114,7 +165,7 @@ public class JwtEncodedSession extends HttpSessionAwareDirectives<String> {
                         // This should be protected and accessible only when logged in
                         path("current_login", () ->
                             get(() ->
-                                requiredSession(oneOffSession, sessionTransport, session ->
+                                ALLOCATIONS.measure("current_login", "requiredSession", next -> requiredSession(oneOffSession, sessionTransport, next), session ->
                                     extractRequestContext(ctx -> {
                                             LOGGER.info("Current session: " + session);
                                             return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
@@ -128,7 +179,11 @@ public class JwtEncodedSession extends HttpSessionAwareDirectives<String> {
                     )
                 ),
                 pathPrefix("site", () ->
-                    getFromResourceDirectory(""))
+                    route(
+                        SITE_ASSETS.route(),
+                        getFromResourceDirectory("")
+                    )
+                )
             );
     }
 }
\ No newline at end of file
@@ -0,0 +1,503 @@
+package session.jwt;
+
+import com.softwaremill.session.DecodeResult;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionEncoder;
+import scala.Option;
+import scala.util.Failure;
+import scala.util.Success;
+import scala.util.Try;
+import session.instrumentation.SessionEvents;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * A JWT session encoder which decodes only the claims the routes need, instead of building a json4s AST of the whole payload.
+ * <p>
+ * Tokens are written by the wrapped encoder (e.g. a JwtSessionEncoder), so they stay exactly as before. Decoding checks that the
+ * header names the HS256 algorithm and verifies the signature; only then it decodes the base64url payload into a per-thread buffer
+ * and scans its JSON once: the registered claims (iss, sub, aud, exp, nbf, iat, jti), the data claim and the declared custom claims
+ * are read into a {@link JwtClaims}, and every other value is skipped without creating objects for it. A token whose nbf is still
+ * in the future is rejected, and the projection turns the claims of the others into the session.
+ * <p>
+ * The signature is accepted in base64url as well as in standard base64, but without non-zero trailing bits, so that every signature
+ * has a single encoding; a "Bearer " prefix is ignored. The last accepted header is kept per thread, so the header is only decoded
+ * when it changes.
+ * The akka.http.session.encrypt-data option is not supported by this encoder.
+ */
+public class ProjectingJwtSessionEncoder<T> implements SessionEncoder<T> {
+
+    private static final String BEARER = "Bearer ";
+    private static final int SIGNATURE_LENGTH = 32;
+
+    private static final int ISS = 0;
+    private static final int SUB = 1;
+    private static final int AUD = 2;
+    private static final int EXP = 3;
+    private static final int NBF = 4;
+    private static final int IAT = 5;
+    private static final int JTI = 6;
+    private static final int DATA = 7;
+    private static final String[] REGISTERED = {"iss", "sub", "aud", "exp", "nbf", "iat", "jti", "data"};
+    private static final byte[][] HEADER_NAMES = {"alg".getBytes(StandardCharsets.US_ASCII)};
+    private static final String ALGORITHM = "HS256";
+
+    private static final int[] DECODE_TABLE = new int[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = i;
+        }
+        DECODE_TABLE['-'] = DECODE_TABLE['+'] = 62;
+        DECODE_TABLE['_'] = DECODE_TABLE['/'] = 63;
+    }
+
+    private final SessionEncoder<T> encoder;
+    private final String[] customClaims;
+    private final byte[][] claimNames;
+    private final Function<JwtClaims, T> projection;
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<>();
+
+    /**
+     * @param encoder      writes the tokens
+     * @param projection   creates the session from the claims, e.g. {@code JwtClaims::data}
+     * @param customClaims the names of the custom claims to read, besides the registered ones and data
+     */
+    public ProjectingJwtSessionEncoder(SessionEncoder<T> encoder, Function<JwtClaims, T> projection, String... customClaims) {
+        this.encoder = encoder;
+        this.projection = projection;
+        this.customClaims = customClaims.clone();
+        this.claimNames = new byte[REGISTERED.length + customClaims.length][];
+        for (int i = 0; i < claimNames.length; i++) {
+            String name = i < REGISTERED.length ? REGISTERED[i] : customClaims[i - REGISTERED.length];
+            claimNames[i] = name.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public String encode(T session, long nowMillis, SessionConfig config) {
+        return encoder.encode(session, nowMillis, config);
+    }
+
+    @Override
+    public Try<DecodeResult<T>> decode(String token, SessionConfig config) {
+        int start = token.startsWith(BEARER) ? BEARER.length() : 0;
+        int headerEnd = token.indexOf('.', start);
+        int payloadEnd = headerEnd < 0 ? -1 : token.indexOf('.', headerEnd + 1);
+        if (payloadEnd < 0)
+            return new Failure<>(new IllegalArgumentException("Malformed JWT"));
+        Scratch s = scratch(config);
+        if (!s.algorithmAccepted(token, start, headerEnd))
+            return new Failure<>(new IllegalArgumentException("Unsupported JWT algorithm, only " + ALGORITHM + " is accepted"));
+
+        SessionEvents.Verify verify = new SessionEvents.Verify();
+        verify.begin();
+        boolean signatureMatches = s.signatureMatches(token, start, payloadEnd);
+        verify.commit(signatureMatches);
+        // the payload of a forged token is never scanned
+        if (!signatureMatches)
+            return new Failure<>(new IllegalArgumentException("Invalid JWT signature"));
+
+        int length = decodeBase64(token, headerEnd + 1, payloadEnd, s.payload(payloadEnd - headerEnd));
+        if (length < 0)
+            return new Failure<>(new IllegalArgumentException("Malformed JWT payload"));
+        JwtClaims claims = new JwtClaims(customClaims);
+        try {
+            new ClaimScanner(s.payload, length, claimNames, claims).object();
+            if (claims.notBefore != JwtClaims.ABSENT && claims.notBefore * 1000L > System.currentTimeMillis())
+                return new Failure<>(new IllegalArgumentException("JWT not valid before " + claims.notBefore));
+            return new Success<>(new DecodeResult<>(
+                projection.apply(claims),
+                claims.expiresAt == JwtClaims.ABSENT ? Option.<Object>empty() : Option.<Object>apply(claims.expiresAt * 1000L),
+                true,
+                false
+            ));
+        } catch (RuntimeException e) {
+            return new Failure<>(e);
+        }
+    }
+
+    /**
+     * Decodes base64url or base64 characters into the target, ignoring padding; returns the decoded length, or -1 if invalid,
+     * including when the unused bits of the last character are not zero.
+     */
+    private static int decodeBase64(String source, int from, int to, byte[] target) {
+        while (to > from && source.charAt(to - 1) == '=') {
+            to--;
+        }
+        int bits = 0;
+        int count = 0;
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            char c = source.charAt(i);
+            int sextet = c < 128 ? DECODE_TABLE[c] : -1;
+            if (sextet < 0)
+                return -1;
+            bits = bits << 6 | sextet;
+            if (++count == 4) {
+                target[length++] = (byte) (bits >>> 16);
+                target[length++] = (byte) (bits >>> 8);
+                target[length++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 1)
+            return -1;
+        if (count == 2) {
+            if ((bits & 0xF) != 0)
+                return -1;
+            target[length++] = (byte) (bits >>> 4);
+        } else if (count == 3) {
+            if ((bits & 0x3) != 0)
+                return -1;
+            target[length++] = (byte) (bits >>> 10);
+            target[length++] = (byte) (bits >>> 2);
+        }
+        return length;
+    }
+
+    private Scratch scratch(SessionConfig config) {
+        Scratch s = scratch.get();
+        if (s == null || !s.secret.equals(config.serverSecret())) {
+            s = new Scratch(config.serverSecret());
+            scratch.set(s);
+        }
+        return s;
+    }
+
+    /**
+     * Per-thread Mac and buffers, as Mac instances are neither thread-safe nor cheap to create.
+     */
+    private static final class Scratch {
+
+        private final String secret;
+        private final Mac mac;
+        private final byte[] expected = new byte[SIGNATURE_LENGTH];
+        private final byte[] actual = new byte[SIGNATURE_LENGTH + 2];
+        private byte[] signed = new byte[512];
+        private byte[] payload = new byte[512];
+        private String acceptedHeader;
+
+        Scratch(String secret) {
+            this.secret = secret;
+            try {
+                this.mac = Mac.getInstance("HmacSHA256");
+                this.mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Checks that the header, token[from, headerEnd), names the HS256 algorithm.
+         */
+        boolean algorithmAccepted(String token, int from, int headerEnd) {
+            int length = headerEnd - from;
+            if (acceptedHeader != null && acceptedHeader.length() == length && token.regionMatches(from, acceptedHeader, 0, length))
+                return true;
+            byte[] header = new byte[length / 4 * 3 + 3];
+            int decoded = decodeBase64(token, from, headerEnd, header);
+            if (decoded < 0)
+                return false;
+            HeaderScanner scanner = new HeaderScanner(header, decoded);
+            try {
+                scanner.object();
+            } catch (RuntimeException e) {
+                return false;
+            }
+            if (!ALGORITHM.equals(scanner.algorithm))
+                return false;
+            acceptedHeader = token.substring(from, headerEnd);
+            return true;
+        }
+
+        byte[] payload(int encodedLength) {
+            int needed = encodedLength / 4 * 3 + 3;
+            if (payload.length < needed)
+                payload = new byte[Math.max(needed, payload.length * 2)];
+            return payload;
+        }
+
+        /**
+         * Checks the HS256 signature of "header.payload", which is token[from, payloadEnd).
+         */
+        boolean signatureMatches(String token, int from, int payloadEnd) {
+            int length = payloadEnd - from;
+            if (signed.length < length)
+                signed = new byte[Math.max(length, signed.length * 2)];
+            for (int i = 0; i < length; i++) {
+                signed[i] = (byte) token.charAt(from + i);
+            }
+            mac.update(signed, 0, length);
+            try {
+                mac.doFinal(expected, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+            int signatureLength = token.length() - payloadEnd - 1;
+            if (signatureLength < 43 || signatureLength > 44)
+                return false;
+            if (decodeBase64(token, payloadEnd + 1, token.length(), actual) != SIGNATURE_LENGTH)
+                return false;
+            int diff = 0;
+            for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+                diff |= expected[i] ^ actual[i];
+            }
+            return diff == 0;
+        }
+    }
+
+    /**
+     * A single pass over the payload JSON, reading the wanted claims and skipping everything else.
+     */
+    private static class ClaimScanner {
+
+        private final byte[] json;
+        private final int end;
+        private final byte[][] names;
+        private final JwtClaims claims;
+        private int pos;
+
+        ClaimScanner(byte[] json, int end, byte[][] names, JwtClaims claims) {
+            this.json = json;
+            this.end = end;
+            this.names = names;
+            this.claims = claims;
+        }
+
+        void object() {
+            whitespace();
+            expect('{');
+            whitespace();
+            if (peek() == '}') {
+                pos++;
+                return;
+            }
+            while (true) {
+                whitespace();
+                expect('"');
+                int keyStart = pos;
+                skipStringBody();
+                int keyEnd = pos - 1;
+                whitespace();
+                expect(':');
+                whitespace();
+                int claim = claim(keyStart, keyEnd);
+                if (claim < 0)
+                    skipValue();
+                else
+                    read(claim);
+                whitespace();
+                byte next = next();
+                if (next == '}')
+                    return;
+                if (next != ',')
+                    throw malformed();
+            }
+        }
+
+        private int claim(int from, int to) {
+            int length = to - from;
+            for (int i = 0; i < names.length; i++) {
+                byte[] name = names[i];
+                if (name.length != length)
+                    continue;
+                int k = 0;
+                while (k < length && json[from + k] == name[k]) {
+                    k++;
+                }
+                if (k == length)
+                    return i;
+            }
+            return -1;
+        }
+
+        void read(int claim) {
+            switch (claim) {
+                case EXP:
+                    claims.expiresAt = number();
+                    break;
+                case NBF:
+                    claims.notBefore = number();
+                    break;
+                case IAT:
+                    claims.issuedAt = number();
+                    break;
+                case ISS:
+                    claims.issuer = value();
+                    break;
+                case SUB:
+                    claims.subject = value();
+                    break;
+                case AUD:
+                    claims.audience = value();
+                    break;
+                case JTI:
+                    claims.jwtId = value();
+                    break;
+                case DATA:
+                    claims.data = value();
+                    break;
+                default:
+                    claims.customValues[claim - REGISTERED.length] = value();
+            }
+        }
+
+        /**
+         * A string value unescaped, or any other value as its JSON text.
+         */
+        String value() {
+            if (peek() == '"') {
+                pos++;
+                return string();
+            }
+            int start = pos;
+            skipValue();
+            return new String(json, start, pos - start, StandardCharsets.UTF_8);
+        }
+
+        private long number() {
+            int start = pos;
+            boolean negative = peek() == '-';
+            if (negative)
+                pos++;
+            long value = 0;
+            while (pos < end && json[pos] >= '0' && json[pos] <= '9') {
+                value = value * 10 + (json[pos++] - '0');
+            }
+            if (pos < end && (json[pos] == '.' || json[pos] == 'e' || json[pos] == 'E')) {
+                skipValue();
+                return (long) Double.parseDouble(new String(json, start, pos - start, StandardCharsets.US_ASCII));
+            }
+            if (pos == start + (negative ? 1 : 0))
+                throw malformed();
+            return negative ? -value : value;
+        }
+
+        /**
+         * Reads the rest of a string, after its opening quote.
+         */
+        private String string() {
+            int start = pos;
+            while (pos < end && json[pos] != '"' && json[pos] != '\\') {
+                pos++;
+            }
+            if (pos < end && json[pos] == '"')
+                return new String(json, start, pos++ - start, StandardCharsets.UTF_8);
+            StringBuilder out = new StringBuilder(new String(json, start, pos - start, StandardCharsets.UTF_8));
+            while (true) {
+                byte b = next();
+                if (b == '"')
+                    return out.toString();
+                if (b != '\\') {
+                    int run = pos - 1;
+                    while (pos < end && json[pos] != '"' && json[pos] != '\\') {
+                        pos++;
+                    }
+                    out.append(new String(json, run, pos - run, StandardCharsets.UTF_8));
+                    continue;
+                }
+                byte escaped = next();
+                switch (escaped) {
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'n': out.append('\n'); break;
+                    case 'r': out.append('\r'); break;
+                    case 't': out.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > end)
+                            throw malformed();
+                        out.append((char) Integer.parseInt(new String(json, pos, 4, StandardCharsets.US_ASCII), 16));
+                        pos += 4;
+                        break;
+                    default: out.append((char) escaped);
+                }
+            }
+        }
+
+        private void skipValue() {
+            int depth = 0;
+            do {
+                byte b = next();
+                if (b == '"') {
+                    skipStringBody();
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                } else if (depth == 0) {
+                    // a number or a literal, up to the next delimiter
+                    while (pos < end && json[pos] != ',' && json[pos] != '}' && json[pos] != ']' && json[pos] > ' ') {
+                        pos++;
+                    }
+                }
+            } while (depth > 0);
+        }
+
+        /**
+         * Skips to after the closing quote of a string, whose opening quote was read.
+         */
+        private void skipStringBody() {
+            while (true) {
+                byte b = next();
+                if (b == '"')
+                    return;
+                if (b == '\\')
+                    next();
+            }
+        }
+
+        private void whitespace() {
+            while (pos < end && (json[pos] == ' ' || json[pos] == '\t' || json[pos] == '\n' || json[pos] == '\r')) {
+                pos++;
+            }
+        }
+
+        private void expect(char c) {
+            if (next() != c)
+                throw malformed();
+        }
+
+        private byte peek() {
+            if (pos >= end)
+                throw malformed();
+            return json[pos];
+        }
+
+        private byte next() {
+            if (pos >= end)
+                throw malformed();
+            return json[pos++];
+        }
+
+        private static IllegalArgumentException malformed() {
+            return new IllegalArgumentException("Malformed JWT payload");
+        }
+    }
+
+    /**
+     * A pass over the header JSON, reading only its alg.
+     */
+    private static final class HeaderScanner extends ClaimScanner {
+
+        private String algorithm;
+
+        HeaderScanner(byte[] json, int end) {
+            super(json, end, HEADER_NAMES, null);
+        }
+
+        @Override
+        void read(int claim) {
+            algorithm = value();
+        }
+    }
+}
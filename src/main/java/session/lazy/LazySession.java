@@ -0,0 +1,73 @@
+package session.lazy;
+
+import com.softwaremill.session.SessionSerializer;
+
+import java.util.function.Function;
+
+/**
+ * A session handle, which deserializes its payload only when the route asks for it.
+ * A handle decoded by the {@link LazySessionEncoder} has already passed the signature and expiry checks, so routes which only need
+ * to know that there is a valid session never pay for deserialization.
+ * A handle may be shared between requests (e.g. by a near-cache): the value is published through a volatile flag, and threads
+ * racing on the first call may both deserialize it.
+ */
+public final class LazySession<T> {
+
+    private final String serialized;
+    private final SessionSerializer<T, String> serializer;
+    private T value;
+    private volatile boolean decoded;
+
+    private LazySession(T value, String serialized, SessionSerializer<T, String> serializer, boolean decoded) {
+        this.value = value;
+        this.serialized = serialized;
+        this.serializer = serializer;
+        this.decoded = decoded;
+    }
+
+    /**
+     * Wraps a session value, e.g. to pass it to setSession.
+     */
+    public static <T> LazySession<T> of(T value) {
+        return new LazySession<>(value, null, null, true);
+    }
+
+    static <T> LazySession<T> encoded(String serialized, SessionSerializer<T, String> serializer) {
+        return new LazySession<>(null, serialized, serializer, false);
+    }
+
+    /**
+     * Returns the session value, deserializing it on the first call.
+     */
+    public T get() {
+        if (!decoded) {
+            value = serializer.deserialize(serialized).get();
+            decoded = true;
+        }
+        return value;
+    }
+
+    /**
+     * Reads a part of the session, e.g. a single attribute: from the serialized form as long as the handle is not decoded, so that
+     * the session is not deserialized, or from the value once it is.
+     */
+    public <R> R read(Function<String, R> fromSerialized, Function<T, R> fromValue) {
+        return decoded ? fromValue.apply(value) : fromSerialized.apply(serialized);
+    }
+
+    public boolean isDecoded() {
+        return decoded;
+    }
+
+    /**
+     * The serialized form this handle was decoded from, or null if it was created from a value.
+     */
+    String serialized() {
+        return serialized;
+    }
+
+    @Override
+    public String toString() {
+        return decoded ? "LazySession(" + value + ")" : "LazySession(<" + serialized.length() + " chars, not decoded>)";
+    }
+}
@@ -0,0 +1,107 @@
+package session.lazy;
+
+import com.softwaremill.session.DecodeResult;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionEncoder;
+import com.softwaremill.session.SessionSerializer;
+import scala.Option;
+import scala.util.Failure;
+import scala.util.Success;
+import scala.util.Try;
+import session.instrumentation.SessionEvents;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * A session encoder, which decodes a session into a {@link LazySession} handle.
+ * The token has a shape similar to the one written by the BasicSessionEncoder: "signature.expiry.serialized", where the
+ * signature is the base64url HmacSHA256 of "expiry.serialized" (the expiry is 0 if sessions do not expire).
+ * A dot separates the parts, as a dash may occur in base64url.
+ * Decoding only splits the token and checks the signature; the SessionManager then checks the expiry, and the serialized part
+ * is left untouched until the route calls {@link LazySession#get()}.
+ * The akka.http.session.encrypt-data option is not supported by this encoder.
+ */
+public class LazySessionEncoder<T> implements SessionEncoder<LazySession<T>> {
+
+    private static final Base64.Encoder SIGNATURE_ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private final SessionSerializer<T, String> serializer;
+    private final ThreadLocal<KeyedMac> macs = new ThreadLocal<>();
+
+    public LazySessionEncoder(SessionSerializer<T, String> serializer) {
+        this.serializer = serializer;
+    }
+
+    @Override
+    public String encode(LazySession<T> session, long nowMillis, SessionConfig config) {
+        // a handle which was never decoded (e.g. when touching a session) is written back as it came in
+        String serialized = session.serialized() != null ? session.serialized() : serializer.serialize(session.get());
+        long expiry = config.sessionMaxAgeSeconds().isDefined()
+            ? nowMillis + (Long) config.sessionMaxAgeSeconds().get() * 1000L
+            : 0L;
+        String signed = expiry + "." + serialized;
+        return sign(signed, config) + "." + signed;
+    }
+
+    @Override
+    public Try<DecodeResult<LazySession<T>>> decode(String token, SessionConfig config) {
+        int signatureEnd = token.indexOf('.');
+        int expiryEnd = signatureEnd < 0 ? -1 : token.indexOf('.', signatureEnd + 1);
+        if (expiryEnd < 0) {
+            return new Failure<>(new IllegalArgumentException("Malformed session token"));
+        }
+        long expiry;
+        try {
+            expiry = Long.parseLong(token.substring(signatureEnd + 1, expiryEnd));
+        } catch (NumberFormatException e) {
+            return new Failure<>(e);
+        }
+        String signed = token.substring(signatureEnd + 1);
+        SessionEvents.Verify verify = new SessionEvents.Verify();
+        verify.begin();
+        boolean signatureMatches = MessageDigest.isEqual(
+            token.substring(0, signatureEnd).getBytes(StandardCharsets.US_ASCII),
+            sign(signed, config).getBytes(StandardCharsets.US_ASCII)
+        );
+        verify.commit(signatureMatches);
+        return new Success<>(new DecodeResult<>(
+            LazySession.encoded(token.substring(expiryEnd + 1), serializer),
+            expiry == 0L ? Option.<Object>empty() : Option.<Object>apply(expiry),
+            signatureMatches,
+            false
+        ));
+    }
+
+    private String sign(String data, SessionConfig config) {
+        KeyedMac keyed = macs.get();
+        if (keyed == null || !keyed.secret.equals(config.serverSecret())) {
+            keyed = new KeyedMac(config.serverSecret());
+            macs.set(keyed);
+        }
+        return SIGNATURE_ENCODER.encodeToString(keyed.mac.doFinal(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * A per-thread Mac, as Mac instances are neither thread-safe nor cheap to create.
+     */
+    private static final class KeyedMac {
+
+        private final String secret;
+        private final Mac mac;
+
+        KeyedMac(String secret) {
+            this.secret = secret;
+            try {
+                this.mac = Mac.getInstance("HmacSHA256");
+                this.mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package session.lazy;
+
+import com.softwaremill.session.SessionSerializer;
+import scala.util.Success;
+import scala.util.Try;
+
+/**
+ * Serializes {@link LazySession} handles with the serializer of their value.
+ * A handle which was never decoded is written as it came in, and deserializing only creates a handle, so a session passing through
+ * e.g. a server-side store is not deserialized until the route asks for it.
+ */
+public class LazySessionSerializer<T> implements SessionSerializer<LazySession<T>, String> {
+
+    private final SessionSerializer<T, String> serializer;
+
+    public LazySessionSerializer(SessionSerializer<T, String> serializer) {
+        this.serializer = serializer;
+    }
+
+    @Override
+    public String serialize(LazySession<T> session) {
+        return session.serialized() != null ? session.serialized() : serializer.serialize(session.get());
+    }
+
+    @Override
+    public Try<LazySession<T>> deserialize(String serialized) {
+        return new Success<>(LazySession.encoded(serialized, serializer));
+    }
+}
@@ -0,0 +1,197 @@
+package session.server_side;
+
+import com.softwaremill.session.DecodeResult;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionEncoder;
+import com.softwaremill.session.SessionSerializer;
+import scala.Option;
+import scala.util.Failure;
+import scala.util.Success;
+import scala.util.Try;
+import session.tokens.TokenGenerator;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * A session encoder which keeps small sessions on the client, and large ones on the server.
+ * <p>
+ * A session is first serialized. If it is longer than maxClientSideLength, its client-side token would be too (the client-side encoders
+ * embed the serialized session), so it goes to the server straight away; otherwise it is encoded by the client-side encoder, and only
+ * goes to the server if that token turns out to be too long. A server-side session is put into the {@link SessionStore} under a
+ * random id, and the client only gets "~id.expiry.signature", where the signature is the base64url HmacSHA256 of "id.expiry". The id
+ * is 128 random bits from a {@link TokenGenerator}, so the token has about 80 characters, whatever the size of the session.
+ * Sessions longer than maxServerSideLength are rejected with an IllegalArgumentException, as they would be stored for their whole
+ * max-age.
+ * <p>
+ * Decoding a server-side token checks the signature before anything else, so forged ids never reach the store. The session is then
+ * taken from the {@link NearCache}, or read from the store and deserialized on a miss.
+ * <p>
+ * Re-encoding the session instance last decoded on the same thread (e.g. when the session directives touch it) keeps its id, and
+ * overwrites its entry with the new expiry; any other session gets a new id. {@link #remove(String, SessionConfig)} removes the
+ * server-side copy of a token, e.g. around invalidateSession when logging out.
+ */
+public class HybridSessionEncoder<T> implements SessionEncoder<T> {
+
+    private static final char SERVER_SIDE = '~';
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final TokenGenerator IDS = new TokenGenerator(16, 256, 4);
+
+    private final SessionEncoder<T> clientSide;
+    private final SessionSerializer<T, String> serializer;
+    private final SessionStore store;
+    private final NearCache<T> nearCache;
+    private final int maxClientSideLength;
+    private final int maxServerSideLength;
+    private final ThreadLocal<KeyedMac> macs = new ThreadLocal<>();
+    private final ThreadLocal<Decoded<T>> lastDecoded = new ThreadLocal<>();
+
+    /**
+     * @param clientSide          encodes the sessions which stay on the client
+     * @param serializer          serializes the sessions kept in the store
+     * @param maxClientSideLength the longest client-side token, in characters
+     * @param maxServerSideLength the longest serialized session kept in the store, in characters
+     * @param nearCacheSize       how many deserialized sessions are kept in memory
+     */
+    public HybridSessionEncoder(SessionEncoder<T> clientSide, SessionSerializer<T, String> serializer, SessionStore store,
+                                int maxClientSideLength, int maxServerSideLength, int nearCacheSize) {
+        this.clientSide = clientSide;
+        this.serializer = serializer;
+        this.store = store;
+        this.nearCache = new NearCache<>(nearCacheSize);
+        this.maxClientSideLength = maxClientSideLength;
+        this.maxServerSideLength = maxServerSideLength;
+    }
+
+    @Override
+    public String encode(T session, long nowMillis, SessionConfig config) {
+        String serialized = serializer.serialize(session);
+        if (serialized.length() <= maxClientSideLength) {
+            String token = clientSide.encode(session, nowMillis, config);
+            if (token.length() <= maxClientSideLength)
+                return token;
+        }
+        if (serialized.length() > maxServerSideLength)
+            throw new IllegalArgumentException("Session of " + serialized.length() + " characters is too large to be stored");
+        long expiry = config.sessionMaxAgeSeconds().isDefined()
+            ? nowMillis + (Long) config.sessionMaxAgeSeconds().get() * 1000L
+            : 0L;
+        Decoded<T> decoded = lastDecoded.get();
+        String id = decoded != null && decoded.session == session ? decoded.id : IDS.next();
+        store.put(id, serialized, expiry);
+        nearCache.put(id, session, expiry);
+        String signed = id + "." + expiry;
+        return SERVER_SIDE + signed + "." + sign(signed, config);
+    }
+
+    @Override
+    public Try<DecodeResult<T>> decode(String token, SessionConfig config) {
+        lastDecoded.remove();
+        if (token.isEmpty() || token.charAt(0) != SERVER_SIDE)
+            return clientSide.decode(token, config);
+        Optional<String> verified = verifiedId(token, config);
+        if (!verified.isPresent())
+            return new Failure<>(new IllegalArgumentException("Invalid server-side session token"));
+        try {
+            String id = verified.get();
+            long expiry = Long.parseLong(token.substring(id.length() + 2, token.lastIndexOf('.')));
+            T session = nearCache.get(id, System.currentTimeMillis());
+            if (session == null) {
+                Optional<String> serialized = store.get(id);
+                if (!serialized.isPresent())
+                    return new Failure<>(new NoSuchElementException("Server-side session not found"));
+                session = serializer.deserialize(serialized.get()).get();
+                nearCache.put(id, session, expiry);
+            }
+            lastDecoded.set(new Decoded<>(id, session));
+            return new Success<>(new DecodeResult<>(
+                session,
+                expiry == 0L ? Option.<Object>empty() : Option.<Object>apply(expiry),
+                true,
+                false
+            ));
+        } catch (RuntimeException e) {
+            return new Failure<>(e);
+        }
+    }
+
+    /**
+     * Removes the server-side copy of the session of a token, if it has one and its signature matches.
+     */
+    public void remove(String token, SessionConfig config) {
+        if (token.isEmpty() || token.charAt(0) != SERVER_SIDE)
+            return;
+        verifiedId(token, config).ifPresent(id -> {
+            store.remove(id);
+            nearCache.remove(id);
+        });
+    }
+
+    public NearCache<T> nearCache() {
+        return nearCache;
+    }
+
+    /**
+     * The id of a server-side token, if the token is well-formed and its signature matches.
+     */
+    private Optional<String> verifiedId(String token, SessionConfig config) {
+        int idEnd = token.indexOf('.');
+        int expiryEnd = idEnd < 0 ? -1 : token.indexOf('.', idEnd + 1);
+        if (expiryEnd < 0)
+            return Optional.empty();
+        String signed = token.substring(1, expiryEnd);
+        boolean signatureMatches = MessageDigest.isEqual(
+            token.substring(expiryEnd + 1).getBytes(StandardCharsets.US_ASCII),
+            sign(signed, config).getBytes(StandardCharsets.US_ASCII)
+        );
+        return signatureMatches ? Optional.of(token.substring(1, idEnd)) : Optional.empty();
+    }
+
+    private String sign(String data, SessionConfig config) {
+        KeyedMac keyed = macs.get();
+        if (keyed == null || !keyed.secret.equals(config.serverSecret())) {
+            keyed = new KeyedMac(config.serverSecret());
+            macs.set(keyed);
+        }
+        return ENCODER.encodeToString(keyed.mac.doFinal(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * The id and the instance of the server-side session last decoded on a thread.
+     */
+    private static final class Decoded<T> {
+
+        private final String id;
+        private final T session;
+
+        Decoded(String id, T session) {
+            this.id = id;
+            this.session = session;
+        }
+    }
+
+    /**
+     * A per-thread Mac, as Mac instances are neither thread-safe nor cheap to create.
+     */
+    private static final class KeyedMac {
+
+        private final String secret;
+        private final Mac mac;
+
+        KeyedMac(String secret) {
+            this.secret = secret;
+            try {
+                this.mac = Mac.getInstance("HmacSHA256");
+                this.mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package session.server_side;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process {@link SessionStore}, standing in for a shared store in the examples and in tests.
+ * Expired sessions are dropped when they are read, and by a sweep at most once a minute, on a put. When more than maxEntries
+ * sessions are stored, the expired ones are dropped, and then the ones closest to their expiry, down to 90% of maxEntries; their
+ * users have to log in again.
+ */
+public class InMemorySessionStore implements SessionStore {
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    public InMemorySessionStore(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public void put(String id, String serialized, long expiresMillis) {
+        entries.put(id, new Entry(serialized, expiresMillis));
+        if (entries.size() > maxEntries)
+            evict();
+        long sweep = nextSweep.get();
+        if (System.nanoTime() - sweep > 0 && nextSweep.compareAndSet(sweep, System.nanoTime() + SWEEP_INTERVAL_NANOS)) {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.isExpired(now));
+        }
+    }
+
+    @Override
+    public Optional<String> get(String id) {
+        Entry entry = entries.get(id);
+        if (entry == null)
+            return Optional.empty();
+        if (entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(id, entry);
+            return Optional.empty();
+        }
+        return Optional.of(entry.serialized);
+    }
+
+    @Override
+    public void remove(String id) {
+        entries.remove(id);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        if (!evicting.compareAndSet(false, true))
+            return;
+        try {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.isExpired(now));
+            int target = maxEntries - maxEntries / 10;
+            if (entries.size() <= target)
+                return;
+            List<Map.Entry<String, Entry>> closestToExpiry = new ArrayList<>(entries.entrySet());
+            closestToExpiry.sort(Comparator.comparingLong(entry -> entry.getValue().expiresMillis == 0 ? Long.MAX_VALUE : entry.getValue().expiresMillis));
+            for (Map.Entry<String, Entry> entry : closestToExpiry) {
+                if (entries.size() <= target)
+                    break;
+                entries.remove(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String serialized;
+        private final long expiresMillis;
+
+        Entry(String serialized, long expiresMillis) {
+            this.serialized = serialized;
+            this.expiresMillis = expiresMillis;
+        }
+
+        boolean isExpired(long now) {
+            return expiresMillis != 0 && expiresMillis < now;
+        }
+    }
+}
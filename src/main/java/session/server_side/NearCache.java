@@ -0,0 +1,90 @@
+package session.server_side;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, in-process cache of deserialized sessions in front of a {@link SessionStore}.
+ * <p>
+ * Reads are a single ConcurrentHashMap lookup. When the cache grows beyond maxEntries, expired sessions are evicted first; only if
+ * that is not enough, other sessions are evicted as well, down to 90% of maxEntries. An evicted session is simply read from the
+ * store again.
+ */
+public class NearCache<T> {
+
+    private final int maxEntries;
+    private final Map<String, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public NearCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the cached session, or null if it is not cached or expired.
+     */
+    public T get(String id, long nowMillis) {
+        Entry<T> entry = entries.get(id);
+        if (entry == null || entry.isExpired(nowMillis)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.session;
+    }
+
+    public void put(String id, T session, long expiresMillis) {
+        entries.put(id, new Entry<>(session, expiresMillis));
+        if (entries.size() > maxEntries)
+            evict();
+    }
+
+    public void remove(String id) {
+        entries.remove(id);
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    private void evict() {
+        if (!evicting.compareAndSet(false, true))
+            return;
+        try {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.isExpired(now));
+            int target = maxEntries - maxEntries / 10;
+            Iterator<Entry<T>> remaining = entries.values().iterator();
+            while (entries.size() > target && remaining.hasNext()) {
+                remaining.next();
+                remaining.remove();
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static final class Entry<T> {
+
+        private final T session;
+        private final long expiresMillis;
+
+        Entry(T session, long expiresMillis) {
+            this.session = session;
+            this.expiresMillis = expiresMillis;
+        }
+
+        boolean isExpired(long now) {
+            return expiresMillis != 0 && expiresMillis < now;
+        }
+    }
+}
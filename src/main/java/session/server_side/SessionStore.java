@@ -0,0 +1,24 @@
+package session.server_side;
+
+import java.util.Optional;
+
+/**
+ * Where the {@link HybridSessionEncoder} keeps the sessions which are too large for the client, as serialized strings under an id.
+ * <p>
+ * The encoder calls the store synchronously, from the session directives, and only when its near-cache misses. An implementation
+ * backed by a remote store (e.g. Redis or a database) should therefore use short timeouts, and report a failure as an empty result.
+ */
+public interface SessionStore {
+
+    /**
+     * Stores a serialized session until the given time, in epoch millis (0 = no expiry).
+     */
+    void put(String id, String serialized, long expiresMillis);
+
+    /**
+     * Returns the serialized session, if it is stored and did not expire.
+     */
+    Optional<String> get(String id);
+
+    void remove(String id);
+}
@@ -0,0 +1,45 @@
+package session.streaming;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The session tokens which were revoked before they expired, e.g. by a logout, kept until their expiry.
+ * <p>
+ * Every revocation increments a generation, so that a {@link SessionWatch} only looks its token up after a revocation happened,
+ * and an idle check costs a single volatile read.
+ */
+public class Revocations {
+
+    private static final int PURGE_EVERY = 1024;
+
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param expiresMillis when the token expires, after which it no longer needs to be kept; Long.MAX_VALUE if it never expires
+     */
+    public void revoke(String token, long expiresMillis) {
+        revoked.put(token, expiresMillis);
+        if (generation.incrementAndGet() % PURGE_EVERY == 0) {
+            long now = System.currentTimeMillis();
+            revoked.values().removeIf(expires -> expires < now);
+        }
+    }
+
+    public boolean isRevoked(String token) {
+        return revoked.containsKey(token);
+    }
+
+    /**
+     * The number of revocations so far.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    public int size() {
+        return revoked.size();
+    }
+}
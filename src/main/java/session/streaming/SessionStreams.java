@@ -0,0 +1,170 @@
+package session.streaming;
+
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
+import akka.http.javadsl.model.headers.HttpOriginRange;
+import akka.http.javadsl.model.sse.ServerSentEvent;
+import akka.http.javadsl.model.ws.Message;
+import akka.http.javadsl.server.Rejections;
+import akka.http.javadsl.server.Route;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
+import com.softwaremill.session.DecodeResult;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionEncoder;
+import com.softwaremill.session.SessionManager;
+import com.softwaremill.session.SetSessionTransport;
+import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.util.Try;
+import session.transport.TokenReader;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Session directives for long-lived WebSocket and server-sent event streams.
+ * <p>
+ * requiredSession would check the session once, when the stream is opened, and never again. Here the session is decoded once too,
+ * when the stream is opened (a request without a valid, unrevoked session is rejected like by requiredSession), and a
+ * {@link SessionWatch} in the stream then ends it when the session expires, or when it is revoked by {@link #revokeSession}. The
+ * messages themselves are never looked at, and the watch of a stream is one timer every checkInterval, so thousands of open streams
+ * cost little more than the streams themselves.
+ * <p>
+ * Browsers do not apply CORS to WebSocket handshakes, and send the session cookie with them whatever page opened them, so a
+ * WebSocket is only opened for an Origin in its allow-list; a handshake without an Origin is rejected as well.
+ */
+public class SessionStreams<T> extends HttpSessionAwareDirectives<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionStreams.class);
+
+    private final SessionEncoder<T> encoder;
+    private final Revocations revocations;
+    private final long checkIntervalMillis;
+    private final TokenReader tokens;
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder revoked = new LongAdder();
+
+    /**
+     * @param encoder       the encoder of the session manager, which decodes the session and its expiry
+     * @param checkInterval how often an open stream checks whether its session was revoked
+     */
+    public SessionStreams(SessionManager<T> manager, SessionEncoder<T> encoder, SetSessionTransport transport, Revocations revocations,
+                          long checkInterval, TimeUnit unit) {
+        super(manager);
+        SessionConfig config = manager.config();
+        this.encoder = encoder;
+        this.revocations = revocations;
+        this.checkIntervalMillis = unit.toMillis(checkInterval);
+        this.tokens = new TokenReader(config, transport);
+    }
+
+    /**
+     * Handles a WebSocket upgrade from one of the allowed origins with the messages of the handler, until the session ends.
+     */
+    public Route webSocket(HttpOriginRange allowedOrigins, Function<T, Flow<Message, Message, ?>> handler) {
+        return
+            checkSameOrigin(allowedOrigins, () ->
+                watchedSession((session, watch) ->
+                    handleWebSocketMessages(handler.apply(session).via(watch.<Message>stage()))
+                )
+            );
+    }
+
+    /**
+     * Completes with the events of the source as text/event-stream, until the session ends.
+     */
+    public Route eventStream(Function<T, Source<ServerSentEvent, ?>> events) {
+        return
+            watchedSession((session, watch) ->
+                completeOK(events.apply(session).via(watch.<ServerSentEvent>stage()), EventStreamMarshalling.toEventStream())
+            );
+    }
+
+    /**
+     * Revokes the session token of the request, so that its open streams end, e.g. around invalidateSession when logging out.
+     */
+    public Route revokeSession(Supplier<Route> inner) {
+        return
+            extractRequest(request -> {
+                Optional<String> token = tokens.session(request);
+                if (token.isPresent()) {
+                    Try<DecodeResult<T>> decoded = encoder.decode(token.get(), getSessionManager().config());
+                    revocations.revoke(token.get(), decoded.isSuccess() ? expiry(decoded.get()) : Long.MAX_VALUE);
+                }
+                return inner.get();
+            });
+    }
+
+    public long openedCount() {
+        return opened.sum();
+    }
+
+    public long expiredCount() {
+        return expired.sum();
+    }
+
+    public long revokedCount() {
+        return revoked.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d streams opened, %,d ended by expiry, %,d ended by revocation", openedCount(), expiredCount(), revokedCount());
+    }
+
+    /**
+     * Decodes the session of the request once, and passes it with a watch of the session to the inner route.
+     */
+    private Route watchedSession(BiFunction<T, Watch, Route> inner) {
+        return
+            extractRequest(request -> {
+                Optional<String> token = tokens.session(request);
+                if (!token.isPresent())
+                    return reject(Rejections.authorizationFailed());
+                // read before the token is checked, so that a revocation racing with the check is seen by the first watch check
+                long generation = revocations.generation();
+                Try<DecodeResult<T>> decoded = encoder.decode(token.get(), getSessionManager().config());
+                if (decoded.isFailure() || !decoded.get().signatureMatches() || revocations.isRevoked(token.get()))
+                    return reject(Rejections.authorizationFailed());
+                long expiresMillis = expiry(decoded.get());
+                if (expiresMillis <= System.currentTimeMillis())
+                    return reject(Rejections.authorizationFailed());
+                opened.increment();
+                return inner.apply(decoded.get().t(), new Watch(token.get(), expiresMillis, generation));
+            });
+    }
+
+    private static long expiry(DecodeResult<?> decoded) {
+        return decoded.expires().isDefined() ? (Long) decoded.expires().get() : Long.MAX_VALUE;
+    }
+
+    /**
+     * The decoded token of a stream, which creates the stage watching it.
+     */
+    private final class Watch {
+
+        private final String token;
+        private final long expiresMillis;
+        private final long generation;
+
+        Watch(String token, long expiresMillis, long generation) {
+            this.token = token;
+            this.expiresMillis = expiresMillis;
+            this.generation = generation;
+        }
+
+        <X> SessionWatch<X> stage() {
+            return new SessionWatch<>(token, expiresMillis, revocations, generation, checkIntervalMillis, end -> {
+                LOGGER.debug("Ending a session stream, as the session was {}", end == SessionWatch.End.EXPIRED ? "expired" : "revoked");
+                (end == SessionWatch.End.EXPIRED ? expired : revoked).increment();
+            });
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package session.streaming;
+
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.TimerGraphStageLogic;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A stage which passes the elements of a stream through, and completes the stream when its session expires or is revoked.
+ * <p>
+ * The session is not decoded again: the stage knows the token and its expiry, and checks both on a timer of the stream, every
+ * checkInterval and exactly at the expiry. The token is only looked up in the {@link Revocations} if a revocation happened since the
+ * last check. Elements are not inspected, so a busy stream costs nothing more than an idle one.
+ */
+final class SessionWatch<X> extends GraphStage<FlowShape<X, X>> {
+
+    enum End {
+        EXPIRED, REVOKED
+    }
+
+    private static final String CHECK = "check";
+
+    private final Inlet<X> in = Inlet.create("SessionWatch.in");
+    private final Outlet<X> out = Outlet.create("SessionWatch.out");
+    private final FlowShape<X, X> shape = FlowShape.of(in, out);
+
+    private final String token;
+    private final long expiresMillis;
+    private final Revocations revocations;
+    private final long generation;
+    private final long checkIntervalMillis;
+    private final Consumer<End> onEnd;
+
+    /**
+     * @param expiresMillis when the session expires, Long.MAX_VALUE if it does not
+     * @param generation    the revocation generation when the token was last checked
+     * @param onEnd         called when the stage ends the stream
+     */
+    SessionWatch(String token, long expiresMillis, Revocations revocations, long generation, long checkIntervalMillis, Consumer<End> onEnd) {
+        this.token = token;
+        this.expiresMillis = expiresMillis;
+        this.revocations = revocations;
+        this.generation = generation;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.onEnd = onEnd;
+    }
+
+    @Override
+    public FlowShape<X, X> shape() {
+        return shape;
+    }
+
+    @Override
+    public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+        return new TimerGraphStageLogic(shape) {
+
+            private long checkedGeneration = generation;
+
+            {
+                setHandler(in, new AbstractInHandler() {
+                    @Override
+                    public void onPush() {
+                        push(out, grab(in));
+                    }
+                });
+                setHandler(out, new AbstractOutHandler() {
+                    @Override
+                    public void onPull() {
+                        pull(in);
+                    }
+                });
+            }
+
+            @Override
+            public void preStart() {
+                check();
+            }
+
+            @Override
+            public void onTimer(Object key) {
+                check();
+            }
+
+            private void check() {
+                long now = System.currentTimeMillis();
+                if (expiresMillis <= now) {
+                    end(End.EXPIRED);
+                    return;
+                }
+                long current = revocations.generation();
+                if (current != checkedGeneration) {
+                    checkedGeneration = current;
+                    if (revocations.isRevoked(token)) {
+                        end(End.REVOKED);
+                        return;
+                    }
+                }
+                scheduleOnce(CHECK, FiniteDuration.create(Math.min(checkIntervalMillis, expiresMillis - now), TimeUnit.MILLISECONDS));
+            }
+
+            private void end(End reason) {
+                onEnd.accept(reason);
+                completeStage();
+            }
+        };
+    }
+}
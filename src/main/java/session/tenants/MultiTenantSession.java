@@ -0,0 +1,141 @@
+package session.tenants;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.http.javadsl.ConnectHttp;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.ServerBinding;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.Unmarshaller;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Flow;
+import com.softwaremill.session.BasicSessionEncoder;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionEncoder;
+import com.softwaremill.session.javadsl.SessionSerializers;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShapes;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+import static com.softwaremill.session.javadsl.SessionTransports.CookieST;
+import static com.softwaremill.session.javadsl.SessionTransports.HeaderST;
+
+/**
+ * Serves the login example for every tenant in the tenants section of application.conf, keyed by the host of the request.
+ * <p>
+ * Each tenant has its own akka.http.session config, with its own server-secret, on top of the shared one, and its own
+ * session-transport (header or cookie). A tenant without a server-secret of its own is not served, as it would share the secret of
+ * the fallback config, and accept the sessions of other tenants.
+ */
+public class MultiTenantSession extends AllDirectives {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiTenantSession.class);
+    private static final SessionEncoder<String> BASIC_ENCODER = new PreValidatingSessionEncoder<>(
+        new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer),
+        TokenShapes.basic(4096)
+    );
+    private static final int MAX_TENANTS = 1000;
+    private static final String SERVER_SECRET = "akka.http.session.server-secret";
+
+    private final TenantRegistry<String> tenants;
+
+    private MultiTenantSession(Config config) {
+        Config tenantConfigs = config.getConfig("tenants");
+
+        // *************************************************************************** //
+        // This is where each tenant gets its own SessionManager, when first requested //
+        // *************************************************************************** //
+        tenants = new TenantRegistry<>(TenantRegistry.byHost(), key -> {
+            String path = ConfigUtil.joinPath(key);
+            if (!tenantConfigs.hasPath(path))
+                return Optional.empty();
+            Config tenant = tenantConfigs.getConfig(path);
+            if (!tenant.hasPath(SERVER_SECRET)) {
+                LOGGER.error("Tenant {} has no {} of its own, and is not served", key, SERVER_SECRET);
+                return Optional.empty();
+            }
+            return Optional.of(new Tenant<>(
+                key,
+                SessionConfig.fromConfig(tenant.withFallback(config)),
+                BASIC_ENCODER,
+                tenant.hasPath("session-transport") && tenant.getString("session-transport").equals("cookie") ? CookieST : HeaderST
+            ));
+        }, MAX_TENANTS);
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        // ** akka-http boiler plate **
+        ActorSystem system = ActorSystem.create("example");
+        final ActorMaterializer materializer = ActorMaterializer.create(system);
+        final Http http = Http.get(system);
+
+        // ** akka-http-session setup **
+        final MultiTenantSession app = new MultiTenantSession(ConfigFactory.load());
+
+        // ** akka-http boiler plate continued **
+        final Flow<HttpRequest, HttpResponse, NotUsed> routes = app.createRoutes().flow(system, materializer);
+        final CompletionStage<ServerBinding> binding = http.bindAndHandle(routes, ConnectHttp.toHost("localhost", 8080), materializer);
+
+        System.out.println("Server started, press enter to stop");
+        System.in.read();
+
+        LOGGER.info("Tenants: {}", app.tenants);
+        binding
+            .thenCompose(ServerBinding::unbind)
+            .thenAccept(unbound -> system.terminate());
+    }
+
+    private Route createRoutes() {
+        return
+            tenants.tenant(tenant ->
+                pathPrefix("api", () ->
+                    route(
+                        path("do_login", () ->
+                            post(() ->
+                                entity(Unmarshaller.entityToString(), body -> {
+                                        LOGGER.info("Logging in {} to {}", body, tenant.key());
+                                        return tenant.setSession(tenant.oneOffSession(), tenant.transport(), body, () ->
+                                            complete("ok")
+                                        );
+                                    }
+                                )
+                            )
+                        ),
+
+                        // This should be protected and accessible only when logged in
+                        path("do_logout", () ->
+                            post(() ->
+                                tenant.requiredSession(tenant.oneOffSession(), tenant.transport(), session ->
+                                    tenant.invalidateSession(tenant.oneOffSession(), tenant.transport(), () -> {
+                                        LOGGER.info("Logging out {} from {}", session, tenant.key());
+                                        return complete("ok");
+                                    })
+                                )
+                            )
+                        ),
+
+                        // This should be protected and accessible only when logged in
+                        path("current_login", () ->
+                            get(() ->
+                                tenant.requiredSession(tenant.oneOffSession(), tenant.transport(), session ->
+                                    complete(session)
+                                )
+                            )
+                        )
+                    )
+                )
+            );
+    }
+}
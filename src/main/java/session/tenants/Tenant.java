@@ -0,0 +1,41 @@
+package session.tenants;
+
+import com.softwaremill.session.OneOff;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionEncoder;
+import com.softwaremill.session.SessionManager;
+import com.softwaremill.session.SetSessionTransport;
+import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
+
+/**
+ * The session setup of one tenant: its SessionManager, built from its own config (and so its own secret), its encoder and its
+ * transport. The session directives are used on the tenant, e.g. {@code tenant.requiredSession(tenant.oneOffSession(), tenant.transport(), ...)}.
+ */
+public class Tenant<T> extends HttpSessionAwareDirectives<T> {
+
+    private final String key;
+    private final OneOff<T> oneOffSession;
+    private final SetSessionTransport transport;
+
+    // written by the registry at most once per second, so that reads do not all write to one cache line
+    volatile long lastUsedMillis = System.currentTimeMillis();
+
+    public Tenant(String key, SessionConfig config, SessionEncoder<T> encoder, SetSessionTransport transport) {
+        super(new SessionManager<>(config, encoder));
+        this.key = key;
+        this.oneOffSession = new OneOff<>(getSessionManager());
+        this.transport = transport;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public OneOff<T> oneOffSession() {
+        return oneOffSession;
+    }
+
+    public SetSessionTransport transport() {
+        return transport;
+    }
+}
@@ -0,0 +1,166 @@
+package session.tenants;
+
+import akka.http.javadsl.model.HttpHeader;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.Route;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Resolves the {@link Tenant} of each request from a key, e.g. the host or a header, and passes it to the inner route.
+ * <p>
+ * Tenants are built by the loader when they are first requested, once each, and kept in a bounded cache. A request for a cached tenant
+ * is a single ConcurrentHashMap read, without a lock. When more than maxTenants are cached, the least recently used ones are evicted,
+ * down to 90% of maxTenants. An evicted tenant is simply built again; its sessions stay valid, as they only depend on its config.
+ * Requests for a key the loader does not know are completed with 404 Not Found. Unknown keys are remembered as well, so the loader
+ * runs once per key rather than on every request; as any Host header can be sent, at most maxTenants of them are remembered, and
+ * the set is cleared when it is full.
+ */
+public class TenantRegistry<T> extends AllDirectives {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TenantRegistry.class);
+    private static final long TOUCH_RESOLUTION_MILLIS = 1000;
+
+    private final Function<HttpRequest, Optional<String>> tenantKey;
+    private final Function<String, Optional<Tenant<T>>> loader;
+    private final int maxTenants;
+
+    private final Map<String, Tenant<T>> tenants = new ConcurrentHashMap<>();
+    private final Set<String> unknownKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder built = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder unknown = new LongAdder();
+
+    /**
+     * @param tenantKey the key of the tenant of a request, e.g. {@link #byHost()} or {@link #byHeader(String)}
+     * @param loader    builds the tenant of a key, or returns empty if there is no such tenant
+     */
+    public TenantRegistry(Function<HttpRequest, Optional<String>> tenantKey, Function<String, Optional<Tenant<T>>> loader, int maxTenants) {
+        this.tenantKey = tenantKey;
+        this.loader = loader;
+        this.maxTenants = maxTenants;
+    }
+
+    /**
+     * The host of the request, without the port.
+     */
+    public static Function<HttpRequest, Optional<String>> byHost() {
+        return request -> Optional.of(request.getUri().host().address().toLowerCase());
+    }
+
+    /**
+     * The value of the header, e.g. X-Tenant.
+     */
+    public static Function<HttpRequest, Optional<String>> byHeader(String name) {
+        String lowerCaseName = name.toLowerCase();
+        return request -> {
+            for (HttpHeader header : request.getHeaders()) {
+                if (header.is(lowerCaseName))
+                    return Optional.of(header.value());
+            }
+            return Optional.empty();
+        };
+    }
+
+    /**
+     * Passes the tenant of the request to the inner route.
+     */
+    public Route tenant(Function<Tenant<T>, Route> inner) {
+        return
+            extractRequest(request -> {
+                Optional<Tenant<T>> tenant = tenantKey.apply(request).flatMap(this::resolve);
+                if (!tenant.isPresent()) {
+                    unknown.increment();
+                    return complete(StatusCodes.NOT_FOUND, "Unknown tenant");
+                }
+                return inner.apply(tenant.get());
+            });
+    }
+
+    /**
+     * The tenant of the key, built by the loader if it is not cached.
+     */
+    public Optional<Tenant<T>> resolve(String key) {
+        long now = System.currentTimeMillis();
+        Tenant<T> tenant = tenants.get(key);
+        if (tenant == null) {
+            if (unknownKeys.contains(key))
+                return Optional.empty();
+            tenant = tenants.computeIfAbsent(key, this::load);
+            if (tenant == null) {
+                if (unknownKeys.size() >= maxTenants)
+                    unknownKeys.clear();
+                unknownKeys.add(key);
+                return Optional.empty();
+            }
+            if (tenants.size() > maxTenants)
+                evict();
+        }
+        if (now - tenant.lastUsedMillis >= TOUCH_RESOLUTION_MILLIS)
+            tenant.lastUsedMillis = now;
+        return Optional.of(tenant);
+    }
+
+    public int size() {
+        return tenants.size();
+    }
+
+    public long builtCount() {
+        return built.sum();
+    }
+
+    public long evictedCount() {
+        return evicted.sum();
+    }
+
+    public long unknownCount() {
+        return unknown.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d tenants cached, %,d built, %,d evicted, %,d requests for unknown tenants",
+            size(), builtCount(), evictedCount(), unknownCount());
+    }
+
+    private Tenant<T> load(String key) {
+        Optional<Tenant<T>> tenant = loader.apply(key);
+        if (tenant.isPresent()) {
+            built.increment();
+            LOGGER.info("Built the session manager of tenant {}", key);
+        }
+        return tenant.orElse(null);
+    }
+
+    private void evict() {
+        if (!evicting.compareAndSet(false, true))
+            return;
+        try {
+            List<Map.Entry<String, Tenant<T>>> leastRecentlyUsed = new ArrayList<>(tenants.entrySet());
+            leastRecentlyUsed.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsedMillis));
+            int target = maxTenants - maxTenants / 10;
+            for (Map.Entry<String, Tenant<T>> entry : leastRecentlyUsed) {
+                if (tenants.size() <= target)
+                    break;
+                if (tenants.remove(entry.getKey(), entry.getValue()))
+                    evicted.increment();
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+}
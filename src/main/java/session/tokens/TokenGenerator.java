@@ -0,0 +1,178 @@
+package session.tokens;
+
+import session.instrumentation.SessionEvents;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands out random tokens (base64url, without padding) from buffers of random bytes which are filled in the background.
+ * <p>
+ * SecureRandom.nextBytes synchronizes on the instance, and may wait for entropy, so sharing one SecureRandom between request threads
+ * makes it a contention point. Here, the buffers are split into shards, one per processor (rounded up to a power of two), picked by
+ * the thread id. Each shard has a current block of random bytes and a queue of spare blocks. Taking a token claims the next
+ * tokenBytes of the current block with a compare-and-set, so no bytes are ever handed out twice and no lock is taken. When the
+ * current block is used up, it is replaced by a spare, and a single refill thread tops the spares up again with its own SecureRandom.
+ * <p>
+ * If a shard runs out of spares, the token is generated on the calling thread with a thread-local SecureRandom; that is counted as an
+ * exhaustion, and emitted as a {@link SessionEvents.TokenExhausted} event. Every refill is a {@link SessionEvents.TokenRefill} event,
+ * whose duration is the refill latency.
+ */
+public class TokenGenerator {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final long REFILL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final ThreadLocal<SecureRandom> FALLBACK = ThreadLocal.withInitial(SecureRandom::new);
+
+    private final int tokenBytes;
+    private final int blockBytes;
+    private final int spareBlocks;
+    private final Shard[] shards;
+    private final SecureRandom random = new SecureRandom();
+    private final Thread refiller;
+
+    private final LongAdder exhaustions = new LongAdder();
+    private final LongAdder refills = new LongAdder();
+    private final LongAdder refillNanos = new LongAdder();
+    private volatile long maxRefillNanos;
+
+    /**
+     * Fills all buffers, and starts the refill thread.
+     *
+     * @param tokenBytes     the random bytes per token, e.g. 16 for 128 bits
+     * @param tokensPerBlock how many tokens a block of random bytes holds
+     * @param spareBlocks    how many filled blocks each shard keeps in reserve
+     */
+    public TokenGenerator(int tokenBytes, int tokensPerBlock, int spareBlocks) {
+        this.tokenBytes = tokenBytes;
+        this.blockBytes = tokenBytes * tokensPerBlock;
+        this.spareBlocks = spareBlocks;
+        int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(fill());
+            topUp(shards[i]);
+        }
+        this.refiller = new Thread(this::refillLoop, "token-refill");
+        this.refiller.setDaemon(true);
+        this.refiller.start();
+    }
+
+    /**
+     * Returns a new token, without blocking unless the shard of the calling thread ran out of random bytes.
+     */
+    public String next() {
+        int index = (int) Thread.currentThread().getId() & (shards.length - 1);
+        Shard shard = shards[index];
+        while (true) {
+            Block block = shard.current.get();
+            int offset = block.claimed.get();
+            if (offset + tokenBytes <= block.bytes.length) {
+                if (block.claimed.compareAndSet(offset, offset + tokenBytes))
+                    return ENCODER.encodeToString(Arrays.copyOfRange(block.bytes, offset, offset + tokenBytes));
+                continue;
+            }
+            Block spare = shard.spares.poll();
+            if (spare == null)
+                return exhausted(index);
+            if (!shard.current.compareAndSet(block, spare))
+                shard.spares.offer(spare);
+            LockSupport.unpark(refiller);
+        }
+    }
+
+    public long exhaustions() {
+        return exhaustions.sum();
+    }
+
+    public long refills() {
+        return refills.sum();
+    }
+
+    public double meanRefillMicros() {
+        long count = refills.sum();
+        return count == 0 ? 0 : refillNanos.sum() / 1000.0 / count;
+    }
+
+    public double maxRefillMicros() {
+        return maxRefillNanos / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d shards, %,d refills (%.1f us mean, %.1f us max), %,d exhaustions",
+            shards.length, refills(), meanRefillMicros(), maxRefillMicros(), exhaustions());
+    }
+
+    private String exhausted(int shard) {
+        exhaustions.increment();
+        SessionEvents.TokenExhausted event = new SessionEvents.TokenExhausted();
+        event.commit(shard);
+        LockSupport.unpark(refiller);
+        byte[] bytes = new byte[tokenBytes];
+        FALLBACK.get().nextBytes(bytes);
+        return ENCODER.encodeToString(bytes);
+    }
+
+    /**
+     * Runs on the refill thread: tops up the spares of every shard, then parks until a spare was taken, or the refill interval passed.
+     */
+    private void refillLoop() {
+        while (true) {
+            for (Shard shard : shards) {
+                topUp(shard);
+            }
+            LockSupport.parkNanos(this, REFILL_INTERVAL_NANOS);
+        }
+    }
+
+    private void topUp(Shard shard) {
+        // only the refill thread (and the constructor, before it starts) adds spares, so the size cannot grow in between
+        while (shard.spares.size() < spareBlocks) {
+            shard.spares.offer(fill());
+        }
+    }
+
+    private Block fill() {
+        SessionEvents.TokenRefill event = new SessionEvents.TokenRefill();
+        event.begin();
+        long start = System.nanoTime();
+        byte[] bytes = new byte[blockBytes];
+        random.nextBytes(bytes);
+        long nanos = System.nanoTime() - start;
+        event.commit(blockBytes);
+        refills.increment();
+        refillNanos.add(nanos);
+        if (nanos > maxRefillNanos)
+            maxRefillNanos = nanos;
+        return new Block(bytes);
+    }
+
+    private static final class Shard {
+
+        private final AtomicReference<Block> current;
+        private final ConcurrentLinkedQueue<Block> spares = new ConcurrentLinkedQueue<>();
+
+        Shard(Block current) {
+            this.current = new AtomicReference<>(current);
+        }
+    }
+
+    private static final class Block {
+
+        private final byte[] bytes;
+        private final AtomicInteger claimed = new AtomicInteger();
+
+        Block(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
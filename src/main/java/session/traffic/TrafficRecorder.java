@@ -0,0 +1,197 @@
+package session.traffic;
+
+import akka.http.javadsl.model.HttpHeader;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.RemoteAddress;
+import akka.http.javadsl.model.headers.Cookie;
+import akka.http.javadsl.model.headers.HttpCookiePair;
+import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.RejectionHandler;
+import akka.http.javadsl.server.Route;
+import com.softwaremill.session.SessionConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the shape of every request to an example, so that the same mix can be replayed by {@link TrafficReplay}.
+ * <p>
+ * Each request is a tab-separated line: when it arrived, relative to the start, a client number, the method and path, the session
+ * transport (cookie, header or - without a session), the session type of the example, the lengths of the body, the session token
+ * and the refresh token, whether a CSRF token was submitted, the response status and length, and the latency until the response.
+ * No token, body, query or header value is written, and the client number only tells the requests of one client IP apart.
+ * <p>
+ * The recording is opt-in, by starting the example with -Dsession.traffic.record=&lt;file&gt;. The lines are written by a
+ * background thread, and rejections are turned into responses by the default rejection handler, so that they are recorded too.
+ * The examples run their JIT warm-up on routes without the recorder, so only the requests of real clients are recorded.
+ */
+public class TrafficRecorder extends AllDirectives {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrafficRecorder.class);
+
+    public static final String FILE = System.getProperty("session.traffic.record");
+
+    static final String HEADER = "# offset_us\tclient\tmethod\tpath\ttransport\tsession_type\trequest_bytes\tsession_bytes\trefresh_bytes\tcsrf\tstatus\tresponse_bytes\tlatency_us";
+
+    private static final int MAX_CLIENTS = 1_000_000;
+
+    private final String sessionType;
+    private final String sessionCookie;
+    private final String sessionHeader;
+    private final String refreshCookie;
+    private final String refreshHeader;
+    private final String csrfHeader;
+    private final long startedNanos = System.nanoTime();
+    private final Map<String, Integer> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger nextClient = new AtomicInteger();
+    private final LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    private final BufferedWriter out;
+    private volatile boolean stopped;
+
+    private TrafficRecorder(String sessionType, SessionConfig config, Path file) {
+        this.sessionType = sessionType;
+        this.sessionCookie = config.sessionCookieConfig().name();
+        this.sessionHeader = config.sessionHeaderConfig().getFromClientHeaderName().toLowerCase();
+        this.refreshCookie = config.refreshTokenCookieConfig().name();
+        this.refreshHeader = config.refreshTokenHeaderConfig().getFromClientHeaderName().toLowerCase();
+        this.csrfHeader = config.csrfSubmittedName().toLowerCase();
+        try {
+            this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            out.write(HEADER);
+            out.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the traffic recording " + file, e);
+        }
+        Thread writer = new Thread(this::writeLoop, "traffic-recorder");
+        writer.setDaemon(true);
+        writer.start();
+        LOGGER.info("Recording the traffic shape to {}", file);
+    }
+
+    /**
+     * Returns the routes, recording their traffic if -Dsession.traffic.record is set, and unchanged otherwise.
+     *
+     * @param sessionType the label of the session type of the example, e.g. String, Long, Map, CustomType or JWT
+     */
+    public static Route record(String sessionType, SessionConfig config, Route routes) {
+        if (FILE == null)
+            return routes;
+        return new TrafficRecorder(sessionType, config, Paths.get(FILE)).record(routes);
+    }
+
+    private Route record(Route routes) {
+        return
+            extractRequest(request ->
+                extractClientIP(remote -> {
+                        long start = System.nanoTime();
+                        StringBuilder line = shape(request, remote, start);
+                        return mapResponse(response -> {
+                                if (!stopped)
+                                    lines.add(complete(line, response, start));
+                                return response;
+                            }, () ->
+                            handleRejections(RejectionHandler.defaultHandler(), () ->
+                                routes
+                            )
+                        );
+                    }
+                )
+            );
+    }
+
+    private StringBuilder shape(HttpRequest request, RemoteAddress remote, long start) {
+        int session = -1;
+        int refresh = -1;
+        boolean csrf = false;
+        String transport = "-";
+        for (HttpHeader header : request.getHeaders()) {
+            if (header instanceof Cookie) {
+                for (HttpCookiePair pair : ((Cookie) header).getCookies()) {
+                    if (pair.name().equals(sessionCookie)) {
+                        session = pair.value().length();
+                        transport = "cookie";
+                    } else if (pair.name().equals(refreshCookie)) {
+                        refresh = pair.value().length();
+                    }
+                }
+            } else if (header.is(sessionHeader)) {
+                session = header.value().length();
+                transport = "header";
+            } else if (header.is(refreshHeader)) {
+                refresh = header.value().length();
+            } else if (header.is(csrfHeader)) {
+                csrf = true;
+            }
+        }
+        return new StringBuilder(128)
+            .append(TimeUnit.NANOSECONDS.toMicros(start - startedNanos)).append('\t')
+            .append(client(remote)).append('\t')
+            .append(request.method().value()).append('\t')
+            .append(request.getUri().path()).append('\t')
+            .append(transport).append('\t')
+            .append(sessionType).append('\t')
+            .append(request.entity().getContentLengthOption().orElse(-1)).append('\t')
+            .append(session).append('\t')
+            .append(refresh).append('\t')
+            .append(csrf ? 1 : 0).append('\t');
+    }
+
+    private static String complete(StringBuilder line, HttpResponse response, long start) {
+        return line
+            .append(response.status().intValue()).append('\t')
+            .append(response.entity().getContentLengthOption().orElse(-1)).append('\t')
+            .append(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start))
+            .toString();
+    }
+
+    private String client(RemoteAddress remote) {
+        if (!remote.getAddress().isPresent())
+            return "-";
+        String address = remote.getAddress().map(InetAddress::getHostAddress).get();
+        Integer client = clients.get(address);
+        if (client == null) {
+            // the numbers keep growing, so a client seen again after the clear cannot be mistaken for another one
+            if (clients.size() >= MAX_CLIENTS)
+                clients.clear();
+            client = clients.computeIfAbsent(address, key -> nextClient.incrementAndGet());
+        }
+        return client.toString();
+    }
+
+    /**
+     * Runs on the writer thread: writes the lines as they come, and flushes whenever the queue is drained.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                String line = lines.take();
+                do {
+                    out.write(line);
+                    out.newLine();
+                    line = lines.poll();
+                } while (line != null);
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.error("Could not write the traffic recording, recording stopped", e);
+            stopped = true;
+            lines.clear();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package session.traffic;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.http.javadsl.model.HttpMethods;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import session.benchmark.Examples;
+import session.warmup.Example;
+import session.warmup.Script;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a recording of {@link TrafficRecorder} against the routes of an example, in-process, and compares the latencies of two
+ * replays, e.g. of two builds.
+ * <p>
+ * The requests are sent at their recorded offsets, divided by the speed (0 sends them as fast as possible). The requests of one
+ * recorded client are sent one after the other, with the session, refresh and CSRF tokens the replayed responses set, like
+ * {@link Script.Client} does. A POST body is the one the example's request script sends to the same path, or as many filler bytes as
+ * recorded. Since no tokens are recorded, a client whose recording starts with a session will be rejected until it logs in; such
+ * status differences are counted.
+ * <p>
+ * A replay prints, and optionally writes, the latency percentiles per method and path. A diff of two such summaries prints the
+ * change of every percentile.
+ * <p>
+ * Usage:
+ * <pre>
+ *   TrafficReplay replay &lt;recording&gt; &lt;example class name&gt; [speed] [summary file]
+ *   TrafficReplay diff &lt;summary file&gt; &lt;summary file&gt;
+ * </pre>
+ */
+public class TrafficReplay {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 100};
+    private static final String ANONYMOUS = "-";
+    private static final long AWAIT_SECONDS = 60;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 3 && args[0].equals("replay")) {
+            double speed = args.length > 3 ? Double.parseDouble(args[3]) : 1;
+            Map<String, long[]> summary = replay(read(args[1]), Class.forName(args[2]), speed);
+            print(summary);
+            if (args.length > 4)
+                write(summary, args[4]);
+        } else if (args.length == 3 && args[0].equals("diff")) {
+            diff(readSummary(args[1]), readSummary(args[2]));
+        } else {
+            System.out.println("Usage: TrafficReplay replay <recording> <example class name> [speed] [summary file]");
+            System.out.println("       TrafficReplay diff <summary file> <summary file>");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Replays the requests, and returns the count and the latency percentiles in microseconds per method and path.
+     */
+    private static Map<String, long[]> replay(List<Request> requests, Class<?> example, double speed) throws Exception {
+        ActorSystem system = ActorSystem.create("replay");
+        try {
+            Materializer materializer = ActorMaterializer.create(system);
+            Example app = Examples.create(example, system);
+            Flow<HttpRequest, HttpResponse, NotUsed> routes = app.routes().flow(system, materializer);
+            Script script = app.script();
+            printMix(requests);
+
+            Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+            Map<String, Script.Client> clients = new HashMap<>();
+            Map<String, CompletionStage<Void>> previous = new HashMap<>();
+            List<CompletableFuture<Void>> sent = new ArrayList<>();
+            LongAdder statusDiffs = new LongAdder();
+            long started = System.nanoTime();
+            for (Request request : requests) {
+                if (speed > 0) {
+                    long due = started + (long) (TimeUnit.MICROSECONDS.toNanos(request.offsetMicros) / speed);
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                boolean anonymous = request.client.equals(ANONYMOUS);
+                Script.Client client = anonymous ? script.newClient() : clients.computeIfAbsent(request.client, id -> script.newClient());
+                CompletionStage<Void> after = anonymous ? CompletableFuture.completedFuture(null) : previous.getOrDefault(request.client, CompletableFuture.completedFuture(null));
+                CompletionStage<Void> done = after.thenCompose(ignored -> {
+                    HttpRequest http = client.prepare(request.toHttpRequest(script));
+                    long start = System.nanoTime();
+                    return Source.single(http).via(routes).runWith(Sink.head(), materializer)
+                        .thenAccept(response -> {
+                            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+                            response.discardEntityBytes(materializer);
+                            client.receive(response);
+                            latencies.computeIfAbsent(request.route(), route -> Collections.synchronizedList(new ArrayList<>())).add(micros);
+                            if (response.status().intValue() != request.status)
+                                statusDiffs.increment();
+                        });
+                });
+                if (!anonymous)
+                    previous.put(request.client, done);
+                sent.add(done.toCompletableFuture());
+            }
+            CompletableFuture.allOf(sent.toArray(new CompletableFuture[0])).get(AWAIT_SECONDS, TimeUnit.SECONDS);
+            System.out.println(String.format("Replayed %,d requests of %,d clients in %,d ms, %,d responses with another status than recorded",
+                requests.size(), clients.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), statusDiffs.sum()));
+
+            Map<String, long[]> summary = new TreeMap<>();
+            for (Map.Entry<String, List<Long>> route : latencies.entrySet()) {
+                summary.put(route.getKey(), percentiles(route.getValue()));
+            }
+            return summary;
+        } finally {
+            system.terminate();
+        }
+    }
+
+    /**
+     * Returns the count, followed by the {@link #PERCENTILES} of the latencies.
+     */
+    private static long[] percentiles(List<Long> latencies) {
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        long[] result = new long[PERCENTILES.length + 1];
+        result[0] = sorted.length;
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            int index = (int) Math.ceil(PERCENTILES[i] / 100 * sorted.length) - 1;
+            result[i + 1] = sorted[Math.max(0, index)];
+        }
+        return result;
+    }
+
+    private static void printMix(List<Request> requests) {
+        Map<String, Integer> mix = new TreeMap<>();
+        for (Request request : requests) {
+            mix.merge(request.route() + " " + request.transport + " " + request.sessionType, 1, Integer::sum);
+        }
+        System.out.println("Recorded mix:");
+        mix.forEach((shape, count) -> System.out.println(String.format("  %,8d  %s", count, shape)));
+    }
+
+    private static void print(Map<String, long[]> summary) {
+        System.out.println(String.format("%-30s %8s %10s %10s %10s %10s", "route", "count", "p50 us", "p90 us", "p99 us", "max us"));
+        summary.forEach((route, values) ->
+            System.out.println(String.format("%-30s %,8d %,10d %,10d %,10d %,10d", route, values[0], values[1], values[2], values[3], values[4]))
+        );
+    }
+
+    private static void diff(Map<String, long[]> before, Map<String, long[]> after) {
+        System.out.println(String.format("%-30s %22s %22s %22s %22s", "route", "p50 us", "p90 us", "p99 us", "max us"));
+        for (Map.Entry<String, long[]> route : before.entrySet()) {
+            long[] b = route.getValue();
+            long[] a = after.get(route.getKey());
+            if (a == null) {
+                System.out.println(String.format("%-30s only in the first summary", route.getKey()));
+                continue;
+            }
+            StringBuilder line = new StringBuilder(String.format("%-30s", route.getKey()));
+            for (int i = 1; i < b.length; i++) {
+                line.append(String.format(" %,7d -> %,7d %+5.0f%%", b[i], a[i], b[i] == 0 ? 0 : 100.0 * (a[i] - b[i]) / b[i]));
+            }
+            System.out.println(line);
+        }
+        for (String route : after.keySet()) {
+            if (!before.containsKey(route))
+                System.out.println(String.format("%-30s only in the second summary", route));
+        }
+    }
+
+    private static void write(Map<String, long[]> summary, String file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+            out.write("# route\tcount\tp50_us\tp90_us\tp99_us\tmax_us");
+            out.newLine();
+            for (Map.Entry<String, long[]> route : summary.entrySet()) {
+                StringBuilder line = new StringBuilder(route.getKey());
+                for (long value : route.getValue()) {
+                    line.append('\t').append(value);
+                }
+                out.write(line.toString());
+                out.newLine();
+            }
+        }
+    }
+
+    private static Map<String, long[]> readSummary(String file) throws IOException {
+        Map<String, long[]> summary = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            if (line.startsWith("#") || line.isEmpty())
+                continue;
+            String[] fields = line.split("\t");
+            summary.put(fields[0], Arrays.stream(fields, 1, fields.length).mapToLong(Long::parseLong).toArray());
+        }
+        return summary;
+    }
+
+    private static List<Request> read(String file) throws IOException {
+        List<Request> requests = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            if (line.startsWith("#") || line.isEmpty())
+                continue;
+            requests.add(new Request(line.split("\t")));
+        }
+        requests.sort((a, b) -> Long.compare(a.offsetMicros, b.offsetMicros));
+        return requests;
+    }
+
+    /**
+     * A recorded request, see the {@link TrafficRecorder#HEADER} for the fields.
+     */
+    private static final class Request {
+
+        private final long offsetMicros;
+        private final String client;
+        private final String method;
+        private final String path;
+        private final String transport;
+        private final String sessionType;
+        private final long requestBytes;
+        private final int status;
+
+        Request(String[] fields) {
+            this.offsetMicros = Long.parseLong(fields[0]);
+            this.client = fields[1];
+            this.method = fields[2];
+            this.path = fields[3];
+            this.transport = fields[4];
+            this.sessionType = fields[5];
+            this.requestBytes = Long.parseLong(fields[6]);
+            this.status = Integer.parseInt(fields[10]);
+        }
+
+        String route() {
+            return method + " " + path;
+        }
+
+        HttpRequest toHttpRequest(Script script) {
+            HttpRequest request = HttpRequest.create(path).withMethod(HttpMethods.lookup(method).orElse(HttpMethods.GET));
+            if (requestBytes <= 0)
+                return request;
+            String body = script.body(path).orElseGet(() -> String.join("", Collections.nCopies((int) requestBytes, "x")));
+            return request.withEntity(body);
+        }
+    }
+}
@@ -9,10 +9,17 @@ import akka.http.javadsl.model.HttpRequest;
 import akka.http.javadsl.model.HttpResponse;
 import akka.http.javadsl.model.StatusCodes;
 import akka.http.javadsl.model.Uri;
+import akka.http.javadsl.model.headers.HttpOrigin;
+import akka.http.javadsl.model.headers.HttpOriginRange;
+import akka.http.javadsl.model.sse.ServerSentEvent;
+import akka.http.javadsl.model.ws.Message;
+import akka.http.javadsl.model.ws.TextMessage;
 import akka.http.javadsl.server.Route;
 import akka.http.javadsl.unmarshalling.Unmarshaller;
 import akka.stream.ActorMaterializer;
 import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
 import com.softwaremill.session.BasicSessionEncoder;
 import com.softwaremill.session.OneOff;
 import com.softwaremill.session.SessionConfig;
@@ -23,9 +30,21 @@ import com.softwaremill.session.javadsl.HttpSessionAwareDirectives;
 import com.softwaremill.session.javadsl.SessionSerializers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.concurrent.duration.FiniteDuration;
+import session.assets.PreloadedAssets;
+import session.instrumentation.RecordedSessionEncoder;
+import session.streaming.Revocations;
+import session.streaming.SessionStreams;
+import session.traffic.TrafficRecorder;
+import session.validation.PreValidatingSessionEncoder;
+import session.validation.TokenShapes;
+import session.warmup.Example;
+import session.warmup.Script;
+import session.warmup.Warmup;
 
 import java.io.IOException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
 import static com.softwaremill.session.javadsl.SessionTransports.CookieST;
 
@@ -34,10 +53,29 @@ public class CookieTransport extends HttpSessionAwareDirectives<String> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CookieTransport.class);
     private static final String SECRET = "c05ll3lesrinf39t7mc5h6un6r0c69lgfno69dsak3vabeqamouq4328cuaekros401ajdpkh60rrtpd8ro24rbuqmgtnd1ebag6ljnb65i8a55d482ok7o0nch0bfbe";
-    private static final SessionEncoder<String> BASIC_ENCODER = new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer);
+    private static final SessionEncoder<String> BASIC_ENCODER = new RecordedSessionEncoder<>(
+        new PreValidatingSessionEncoder<>(
+            new BasicSessionEncoder<>(SessionSerializers.StringToStringSessionSerializer),
+            TokenShapes.basic(4096)
+        ), "String", "cookie"
+    );
+
+    // *************************************************************************************** //
+    // index.html and its scripts are preloaded, gzipped and tagged, as every visit loads them //
+    // *************************************************************************************** //
+    private static final PreloadedAssets SITE_ASSETS = new PreloadedAssets("index.html", "jquery.min.js", "js-cookie.js");
+
+    // ************************************************************************************** //
+    // Push streams check their session when opened, and end when it expires or is logged out //
+    // ************************************************************************************** //
+    private static final Revocations REVOCATIONS = new Revocations();
+    private static final FiniteDuration PUSH_INTERVAL = FiniteDuration.create(1, TimeUnit.SECONDS);
+    // the origin of the pages under /site; a WebSocket opened by any other page is rejected, as CORS does not cover it
+    private static final HttpOriginRange WEB_SOCKET_ORIGINS = HttpOriginRange.create(HttpOrigin.parse("http://localhost:8080"));
 
     private OneOff<String> oneOffSession;
     private SetSessionTransport sessionTransport;
+    private SessionStreams<String> sessionStreams;
 
     private CookieTransport() {
         super(new SessionManager<>(
@@ -51,6 +89,7 @@ public class CookieTransport extends HttpSessionAwareDirectives<String> {
         // This is where the Session Transport is set to Cookies //
         // ***************************************************** //
         sessionTransport = CookieST;
+        sessionStreams = new SessionStreams<>(getSessionManager(), BASIC_ENCODER, sessionTransport, REVOCATIONS, 5, TimeUnit.SECONDS);
     }
 
     public static void main(String[] args) throws IOException {
@@ -63,8 +102,13 @@ public class CookieTransport extends HttpSessionAwareDirectives<String> {
         // ** akka-http-session setup **
         final CookieTransport app = new CookieTransport();
 
-        // ** akka-http boiler plate continued **
-        final Flow<HttpRequest, HttpResponse, NotUsed> routes = app.createRoutes().flow(system, materializer);
+        // ** optional JIT warm-up, before the port is bound, on routes which are not recorded **
+        Warmup.warmUp(app.createRoutes().flow(system, materializer), materializer, script(app.getSessionManager().config()));
+
+        // ** akka-http boiler plate continued, with the optional traffic recording **
+        final Flow<HttpRequest, HttpResponse, NotUsed> routes = TrafficRecorder.record("String", app.getSessionManager().config(), app.createRoutes())
+            .flow(system, materializer);
+
         final CompletionStage<ServerBinding> binding = http.bindAndHandle(routes, ConnectHttp.toHost("localhost", 8080), materializer);
 
         System.out.println("Server started, press enter to stop");
@@ -75,6 +119,25 @@ public class CookieTransport extends HttpSessionAwareDirectives<String> {
             .thenAccept(unbound -> system.terminate());
     }
 
+    /**
+     * The requests of the JIT warm-up and of the benchmarks.
+     */
+    public static Script script(SessionConfig config) {
+        return new Script(config)
+            .get("/site/index.html")
+            .post("/api/do_login", "my_login")
+            .get("/api/current_login")
+            .post("/api/do_logout", "");
+    }
+
+    /**
+     * The routes and the request script of the example, as the benchmarks run it.
+     */
+    public static Example example(ActorSystem system) {
+        CookieTransport app = new CookieTransport();
+        return new Example(app.createRoutes(), script(app.getSessionManager().config()));
+    }
+
     private Route createRoutes() {
         return
             route(
@@ -104,13 +167,15 @@ public class CookieTransport extends HttpSessionAwareDirectives<String> {
                             path("do_logout", () ->
                                 post(() ->
                                     requiredSession(oneOffSession, sessionTransport, session ->
-                                        invalidateSession(oneOffSession, sessionTransport, () ->
-                                            extractRequestContext(ctx -> {
-                                                    LOGGER.info("Logging out {}", session);
-                                                    return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
-                                                        complete("ok")
-                                                    );
-                                                }
+                                        sessionStreams.revokeSession(() ->
+                                            invalidateSession(oneOffSession, sessionTransport, () ->
+                                                extractRequestContext(ctx -> {
+                                                        LOGGER.info("Logging out {}", session);
+                                                        return onSuccess(() -> ctx.completeWith(HttpResponse.create()), routeResult ->
+                                                            complete("ok")
+                                                        );
+                                                    }
+                                                )
                                             )
                                         )
                                     )
@@ -130,11 +195,38 @@ public class CookieTransport extends HttpSessionAwareDirectives<String> {
                                         )
                                     )
                                 )
+                            ),
+
+                            // Server-sent events, which end when the session expires or is logged out
+                            path("events", () ->
+                                get(() ->
+                                    sessionStreams.eventStream(session ->
+                                        Source.tick(PUSH_INTERVAL, PUSH_INTERVAL, session)
+                                            .map(login -> ServerSentEvent.create("Current session: " + login))
+                                    )
+                                )
+                            ),
+
+                            // A WebSocket, which ignores incoming messages, and is closed when the session expires or is logged out
+                            path("ws", () ->
+                                get(() ->
+                                    sessionStreams.webSocket(WEB_SOCKET_ORIGINS, session ->
+                                        Flow.<Message, Message>fromSinkAndSource(
+                                            Sink.ignore(),
+                                            Source.tick(PUSH_INTERVAL, PUSH_INTERVAL, session)
+                                                .<Message>map(login -> TextMessage.create("Current session: " + login))
+                                        )
+                                    )
+                                )
                             )
                         )
                     ),
                     pathPrefix("site", () ->
-                        getFromResourceDirectory(""))
+                        route(
+                            SITE_ASSETS.route(),
+                            getFromResourceDirectory("")
+                        )
+                    )
                 )
             );
     }
@@ -0,0 +1,76 @@
+package session.transport;
+
+import akka.http.javadsl.model.HttpHeader;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.headers.Cookie;
+import akka.http.javadsl.model.headers.HttpCookiePair;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SetSessionTransport;
+
+import java.util.Optional;
+
+import static com.softwaremill.session.javadsl.SessionTransports.CookieST;
+
+/**
+ * Reads the session and the refresh token of a request from its transport: the cookies, or the headers, named in the session config.
+ * <p>
+ * Every Cookie header of the request is searched, as a client may send several of them (HTTP/2 clients send one per cookie), while
+ * request.getHeader(Cookie.class) only returns the first. The headers are scanned in a single pass, without building a map.
+ */
+public class TokenReader {
+
+    private final boolean cookies;
+    private final String sessionName;
+    private final String refreshName;
+
+    public TokenReader(SessionConfig config, SetSessionTransport transport) {
+        this.cookies = transport == CookieST;
+        this.sessionName = cookies
+            ? config.sessionCookieConfig().name()
+            : config.sessionHeaderConfig().getFromClientHeaderName().toLowerCase();
+        this.refreshName = cookies
+            ? config.refreshTokenCookieConfig().name()
+            : config.refreshTokenHeaderConfig().getFromClientHeaderName().toLowerCase();
+    }
+
+    public Optional<String> session(HttpRequest request) {
+        return read(request, sessionName);
+    }
+
+    public Optional<String> refreshToken(HttpRequest request) {
+        return read(request, refreshName);
+    }
+
+    /**
+     * True if the request carries the session or the refresh token.
+     */
+    public boolean carriesEither(HttpRequest request) {
+        for (HttpHeader header : request.getHeaders()) {
+            if (!cookies) {
+                if (header.is(sessionName) || header.is(refreshName))
+                    return true;
+            } else if (header instanceof Cookie) {
+                for (HttpCookiePair pair : ((Cookie) header).getCookies()) {
+                    if (pair.name().equals(sessionName) || pair.name().equals(refreshName))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Optional<String> read(HttpRequest request, String name) {
+        for (HttpHeader header : request.getHeaders()) {
+            if (!cookies) {
+                if (header.is(name))
+                    return Optional.of(header.value());
+            } else if (header instanceof Cookie) {
+                for (HttpCookiePair pair : ((Cookie) header).getCookies()) {
+                    if (pair.name().equals(name))
+                        return Optional.of(pair.value());
+                }
+            }
+        }
+        return Optional.empty();
+    }
+}
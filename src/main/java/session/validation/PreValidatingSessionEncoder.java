@@ -0,0 +1,113 @@
+package session.validation;
+
+import com.softwaremill.session.DecodeResult;
+import com.softwaremill.session.SessionConfig;
+import com.softwaremill.session.SessionEncoder;
+import scala.Option;
+import scala.util.Failure;
+import scala.util.Success;
+import scala.util.Try;
+import session.instrumentation.SessionEvents;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A SessionEncoder which checks the {@link TokenShape} of a token before handing it to another encoder, so that junk and
+ * long-expired tokens never reach the signature check, the decryption or the deserialization.
+ * <p>
+ * A token which is too short, too long or malformed fails to decode, with a shared exception without a stack trace, and the
+ * SessionManager reports it as corrupt. An expired token is decoded into an expired result without a session, so the SessionManager
+ * reports it as expired, as it would have after the signature check. Every rejection is counted by reason, and emitted as a
+ * {@link SessionEvents.TokenRejected} event.
+ * <p>
+ * Every issued token is checked against the same shape, so that pre-validation never rejects a token the encoder issued: a session
+ * whose token would be too long is refused when it is set, with an IllegalArgumentException, rather than when it comes back.
+ */
+public class PreValidatingSessionEncoder<T> implements SessionEncoder<T> {
+
+    private static final Try<?>[] FAILURES = new Try<?>[Rejection.values().length];
+    private static final Try<?> EXPIRED = new Success<>(new DecodeResult<>(null, Option.<Object>apply(0L), false, false));
+
+    static {
+        for (Rejection rejection : Rejection.values()) {
+            FAILURES[rejection.ordinal()] = new Failure<>(new RejectedTokenException(rejection));
+        }
+    }
+
+    private final SessionEncoder<T> delegate;
+    private final TokenShape shape;
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder[] rejected = new LongAdder[Rejection.values().length];
+
+    public PreValidatingSessionEncoder(SessionEncoder<T> delegate, TokenShape shape) {
+        this.delegate = delegate;
+        this.shape = shape;
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public String encode(T session, long nowMillis, SessionConfig config) {
+        String token = delegate.encode(session, nowMillis, config);
+        Rejection rejection = shape.check(token, config, nowMillis);
+        if (rejection != null)
+            throw new IllegalArgumentException("Refusing to issue a session token of " + token.length() + " characters: " + rejection.message());
+        return token;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Try<DecodeResult<T>> decode(String token, SessionConfig config) {
+        Rejection rejection = shape.check(token, config, System.currentTimeMillis());
+        if (rejection == null) {
+            passed.increment();
+            return delegate.decode(token, config);
+        }
+        rejected[rejection.ordinal()].increment();
+        new SessionEvents.TokenRejected().commit(rejection.name());
+        return (Try<DecodeResult<T>>) (rejection == Rejection.EXPIRED ? EXPIRED : FAILURES[rejection.ordinal()]);
+    }
+
+    /**
+     * The number of tokens which passed the checks, and were decoded.
+     */
+    public long passedCount() {
+        return passed.sum();
+    }
+
+    public long rejectedCount(Rejection reason) {
+        return rejected[reason.ordinal()].sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder counts = new StringBuilder(String.format("%,d passed", passedCount()));
+        for (Rejection rejection : Rejection.values()) {
+            counts.append(String.format(", %,d %s", rejectedCount(rejection), rejection.name().toLowerCase().replace('_', ' ')));
+        }
+        return counts.toString();
+    }
+
+    /**
+     * The cause of a rejected token; shared by all rejections with the same reason, so it has no stack trace.
+     */
+    public static final class RejectedTokenException extends IllegalArgumentException {
+
+        private final Rejection rejection;
+
+        RejectedTokenException(Rejection rejection) {
+            super(rejection.message());
+            this.rejection = rejection;
+        }
+
+        public Rejection rejection() {
+            return rejection;
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
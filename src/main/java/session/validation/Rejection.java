@@ -0,0 +1,22 @@
+package session.validation;
+
+/**
+ * Why a session token was rejected by a {@link TokenShape}, before its signature was checked.
+ */
+public enum Rejection {
+
+    TOO_SHORT("Session token too short"),
+    TOO_LONG("Session token too long"),
+    MALFORMED("Malformed session token"),
+    EXPIRED("Session token expired");
+
+    private final String message;
+
+    Rejection(String message) {
+        this.message = message;
+    }
+
+    public String message() {
+        return message;
+    }
+}
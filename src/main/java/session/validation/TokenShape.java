@@ -0,0 +1,19 @@
+package session.validation;
+
+import com.softwaremill.session.SessionConfig;
+
+/**
+ * The shape of the tokens of a session encoder, checked by a {@link PreValidatingSessionEncoder} before the token is decoded.
+ * See {@link TokenShapes} for the shapes of the encoders of the examples.
+ */
+@FunctionalInterface
+public interface TokenShape {
+
+    /**
+     * Checks the length, the structure and the plaintext expiry of the token, without any cryptography.
+     * A token the encoder could have written must never be rejected; everything else may pass, as it is still decoded.
+     *
+     * @return why the token is rejected, or null if it may be valid
+     */
+    Rejection check(String token, SessionConfig config, long nowMillis);
+}
@@ -0,0 +1,306 @@
+package session.validation;
+
+import java.util.Arrays;
+
+/**
+ * The {@link TokenShape}s of the session encoders of the examples.
+ * <p>
+ * Every check reads the characters of the token at most once, and only a JWT payload is decoded (into a small array) to find
+ * its exp claim. An expiry is only rejected if it is in the past, so the SessionManager would report the token as expired anyway.
+ */
+public final class TokenShapes {
+
+    private static final String BEARER = "Bearer ";
+    private static final char SERVER_SIDE = '~';
+
+    // HmacSHA1 in hex, as written by the BasicSessionEncoder
+    private static final int HEX_SIGNATURE_LENGTH = 40;
+    // HmacSHA256 in base64url without padding, as written by the LazySessionEncoder, the HybridSessionEncoder and HS256 JWTs
+    private static final int SHA256_SIGNATURE_LENGTH = 43;
+    // 16 random bytes in base64url without padding
+    private static final int SERVER_SIDE_ID_LENGTH = 22;
+    // the 48 byte record of the LongSessionEncoder, of which the bytes 8 to 15 (the characters 8 to 23) hold the expiry
+    private static final int LONG_TOKEN_LENGTH = 64;
+    private static final int LONG_EXPIRY_FROM = 8;
+    private static final int LONG_EXPIRY_TO = 24;
+    // longer numbers would overflow, or are no expiry in millis anyway
+    private static final int MAX_EXPIRY_DIGITS = 18;
+    private static final int MAX_EXP_DIGITS = 15;
+
+    private static final byte[] EXP = {'e', 'x', 'p'};
+
+    // base64url and base64 characters; the url-only checks use isBase64Url
+    private static final int[] DECODE_TABLE = new int[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = i;
+        }
+        DECODE_TABLE['-'] = DECODE_TABLE['+'] = 62;
+        DECODE_TABLE['_'] = DECODE_TABLE['/'] = 63;
+    }
+
+    private TokenShapes() {
+    }
+
+    /**
+     * The "signature-expiry-serialized" tokens of the BasicSessionEncoder, with a signature of 40 hex characters.
+     * The expiry is only checked if sessions expire and the data is not encrypted; the token is "signature-encrypted" otherwise.
+     */
+    public static TokenShape basic(int maxLength) {
+        return (token, config, nowMillis) -> {
+            if (token.length() <= HEX_SIGNATURE_LENGTH)
+                return Rejection.TOO_SHORT;
+            if (token.length() > maxLength)
+                return Rejection.TOO_LONG;
+            if (token.charAt(HEX_SIGNATURE_LENGTH) != '-' || !isHex(token, 0, HEX_SIGNATURE_LENGTH))
+                return Rejection.MALFORMED;
+            if (config.sessionEncryptData() || config.sessionMaxAgeSeconds().isEmpty())
+                return null;
+            int expiryEnd = token.indexOf('-', HEX_SIGNATURE_LENGTH + 1);
+            if (expiryEnd < 0)
+                return Rejection.MALFORMED;
+            return expiry(token, HEX_SIGNATURE_LENGTH + 1, expiryEnd, false, nowMillis);
+        };
+    }
+
+    /**
+     * The "signature.expiry.serialized" tokens of the LazySessionEncoder, where an expiry of 0 never expires.
+     */
+    public static TokenShape lazy(int maxLength) {
+        return (token, config, nowMillis) -> {
+            if (token.length() < SHA256_SIGNATURE_LENGTH + 3)
+                return Rejection.TOO_SHORT;
+            if (token.length() > maxLength)
+                return Rejection.TOO_LONG;
+            if (token.charAt(SHA256_SIGNATURE_LENGTH) != '.' || !isBase64Url(token, 0, SHA256_SIGNATURE_LENGTH))
+                return Rejection.MALFORMED;
+            int expiryEnd = token.indexOf('.', SHA256_SIGNATURE_LENGTH + 1);
+            if (expiryEnd < 0)
+                return Rejection.MALFORMED;
+            return expiry(token, SHA256_SIGNATURE_LENGTH + 1, expiryEnd, true, nowMillis);
+        };
+    }
+
+    /**
+     * The 64 character tokens of the LongSessionEncoder; the expiry is read from the characters which encode it.
+     */
+    public static TokenShape longRecord() {
+        return (token, config, nowMillis) -> {
+            if (token.length() < LONG_TOKEN_LENGTH)
+                return Rejection.TOO_SHORT;
+            if (token.length() > LONG_TOKEN_LENGTH)
+                return Rejection.TOO_LONG;
+            if (!isBase64Url(token, 0, LONG_TOKEN_LENGTH))
+                return Rejection.MALFORMED;
+            // the characters 8 to 23 encode the bytes 6 to 17, of which 8 to 15 are the expiry
+            long expiry = 0L;
+            for (int c = LONG_EXPIRY_FROM, b = 6; c < LONG_EXPIRY_TO; c += 4) {
+                int bits = DECODE_TABLE[token.charAt(c)] << 18 | DECODE_TABLE[token.charAt(c + 1)] << 12
+                    | DECODE_TABLE[token.charAt(c + 2)] << 6 | DECODE_TABLE[token.charAt(c + 3)];
+                for (int shift = 16; shift >= 0; shift -= 8, b++) {
+                    if (b >= 8 && b < 16)
+                        expiry = expiry << 8 | (bits >>> shift & 0xFF);
+                }
+            }
+            return expiry != 0L && expiry < nowMillis ? Rejection.EXPIRED : null;
+        };
+    }
+
+    /**
+     * The "header.payload.signature" JWTs, with an optional "Bearer " prefix. The payload is decoded, and its top-level exp claim
+     * (in seconds) is checked; a token without an integer exp claim passes.
+     */
+    public static TokenShape jwt(int maxLength) {
+        return (token, config, nowMillis) -> {
+            int start = token.startsWith(BEARER) ? BEARER.length() : 0;
+            if (token.length() - start < 5)
+                return Rejection.TOO_SHORT;
+            if (token.length() > maxLength)
+                return Rejection.TOO_LONG;
+            int headerEnd = token.indexOf('.', start);
+            int payloadEnd = headerEnd < 0 ? -1 : token.indexOf('.', headerEnd + 1);
+            if (headerEnd <= start || payloadEnd <= headerEnd + 1 || payloadEnd == token.length() - 1
+                || token.indexOf('.', payloadEnd + 1) >= 0)
+                return Rejection.MALFORMED;
+            if (!isBase64(token, start, headerEnd) || !isBase64(token, payloadEnd + 1, token.length()))
+                return Rejection.MALFORMED;
+            byte[] payload = decodeBase64(token, headerEnd + 1, payloadEnd);
+            if (payload == null)
+                return Rejection.MALFORMED;
+            return exp(payload, nowMillis);
+        };
+    }
+
+    /**
+     * The tokens of a HybridSessionEncoder: "~id.expiry.signature" for a session kept on the server, where an expiry of 0 never
+     * expires, and the tokens of the client-side shape otherwise.
+     */
+    public static TokenShape hybrid(TokenShape clientSide) {
+        int minLength = 1 + SERVER_SIDE_ID_LENGTH + 3 + SHA256_SIGNATURE_LENGTH;
+        return (token, config, nowMillis) -> {
+            if (token.isEmpty() || token.charAt(0) != SERVER_SIDE)
+                return clientSide.check(token, config, nowMillis);
+            if (token.length() < minLength)
+                return Rejection.TOO_SHORT;
+            if (token.length() > minLength - 1 + MAX_EXPIRY_DIGITS)
+                return Rejection.TOO_LONG;
+            int idEnd = 1 + SERVER_SIDE_ID_LENGTH;
+            int expiryEnd = token.length() - SHA256_SIGNATURE_LENGTH - 1;
+            if (token.charAt(idEnd) != '.' || token.charAt(expiryEnd) != '.'
+                || !isBase64Url(token, 1, idEnd) || !isBase64Url(token, expiryEnd + 1, token.length()))
+                return Rejection.MALFORMED;
+            return expiry(token, idEnd + 1, expiryEnd, true, nowMillis);
+        };
+    }
+
+    /**
+     * Checks the decimal expiry in millis between from and to.
+     */
+    private static Rejection expiry(String token, int from, int to, boolean zeroNeverExpires, long nowMillis) {
+        if (to == from || to - from > MAX_EXPIRY_DIGITS)
+            return Rejection.MALFORMED;
+        long expiry = 0L;
+        for (int i = from; i < to; i++) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9')
+                return Rejection.MALFORMED;
+            expiry = expiry * 10 + (c - '0');
+        }
+        if (expiry == 0L && zeroNeverExpires)
+            return null;
+        return expiry < nowMillis ? Rejection.EXPIRED : null;
+    }
+
+    /**
+     * Finds the exp claim of the top-level JSON object, skipping strings and nested values, and checks it if it is an integer.
+     */
+    private static Rejection exp(byte[] json, long nowMillis) {
+        int depth = 0;
+        for (int i = 0; i < json.length; i++) {
+            byte b = json[i];
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+            } else if (b == '"') {
+                int end = endOfString(json, i + 1);
+                if (end < 0)
+                    return Rejection.MALFORMED;
+                if (depth == 1 && end - i - 1 == EXP.length && json[i + 1] == EXP[0] && json[i + 2] == EXP[1] && json[i + 3] == EXP[2]) {
+                    int colon = skipWhitespace(json, end + 1);
+                    if (colon < json.length && json[colon] == ':')
+                        return seconds(json, skipWhitespace(json, colon + 1), nowMillis);
+                }
+                i = end;
+            }
+        }
+        return null;
+    }
+
+    private static Rejection seconds(byte[] json, int from, long nowMillis) {
+        long seconds = 0L;
+        int i = from;
+        for (; i < json.length && json[i] >= '0' && json[i] <= '9'; i++) {
+            if (i - from == MAX_EXP_DIGITS)
+                return null;
+            seconds = seconds * 10 + (json[i] - '0');
+        }
+        // not an integer, e.g. a fraction or a string: left to the decoder
+        if (i == from || i < json.length && (json[i] == '.' || json[i] == 'e' || json[i] == 'E'))
+            return null;
+        return seconds * 1000L < nowMillis ? Rejection.EXPIRED : null;
+    }
+
+    /**
+     * Returns the index of the quote which ends the string starting at from, or -1.
+     */
+    private static int endOfString(byte[] json, int from) {
+        for (int i = from; i < json.length; i++) {
+            if (json[i] == '\\')
+                i++;
+            else if (json[i] == '"')
+                return i;
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(byte[] json, int from) {
+        int i = from;
+        while (i < json.length && (json[i] == ' ' || json[i] == '\t' || json[i] == '\n' || json[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Decodes base64url or base64 characters, ignoring padding; returns null if invalid.
+     */
+    private static byte[] decodeBase64(String source, int from, int to) {
+        while (to > from && source.charAt(to - 1) == '=') {
+            to--;
+        }
+        if ((to - from) % 4 == 1)
+            return null;
+        byte[] target = new byte[(to - from) * 3 / 4];
+        int bits = 0;
+        int count = 0;
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            char c = source.charAt(i);
+            int sextet = c < 128 ? DECODE_TABLE[c] : -1;
+            if (sextet < 0)
+                return null;
+            bits = bits << 6 | sextet;
+            if (++count == 4) {
+                target[length++] = (byte) (bits >>> 16);
+                target[length++] = (byte) (bits >>> 8);
+                target[length++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 2) {
+            target[length] = (byte) (bits >>> 4);
+        } else if (count == 3) {
+            target[length++] = (byte) (bits >>> 10);
+            target[length] = (byte) (bits >>> 2);
+        }
+        return target;
+    }
+
+    private static boolean isHex(String token, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = token.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'A' || c > 'F') && (c < 'a' || c > 'f'))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isBase64Url(String token, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = token.charAt(i);
+            if (c >= 128 || DECODE_TABLE[c] < 0 || c == '+' || c == '/')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Base64url or base64 characters, with optional padding at the end.
+     */
+    private static boolean isBase64(String token, int from, int to) {
+        while (to > from && token.charAt(to - 1) == '=') {
+            to--;
+        }
+        for (int i = from; i < to; i++) {
+            char c = token.charAt(i);
+            if (c >= 128 || DECODE_TABLE[c] < 0)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,25 @@
+package session.warmup;
+
+import akka.http.javadsl.server.Route;
+
+/**
+ * An example as the benchmarks run it in-process: its route tree, and the request {@link Script} of its JIT warm-up.
+ */
+public final class Example {
+
+    private final Route routes;
+    private final Script script;
+
+    public Example(Route routes, Script script) {
+        this.routes = routes;
+        this.script = script;
+    }
+
+    public Route routes() {
+        return routes;
+    }
+
+    public Script script() {
+        return script;
+    }
+}
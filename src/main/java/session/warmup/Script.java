@@ -0,0 +1,148 @@
+package session.warmup;
+
+import akka.http.javadsl.model.HttpHeader;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.headers.Cookie;
+import akka.http.javadsl.model.headers.HttpCookie;
+import akka.http.javadsl.model.headers.HttpCookiePair;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.headers.SetCookie;
+import akka.stream.Materializer;
+import com.softwaremill.session.SessionConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * A script of requests against an example, e.g. login, current_login and logout, sent like a browser or a header-based client
+ * would: the session, refresh token and CSRF tokens set by one response are sent with the next request.
+ * <p>
+ * The requests carry no client address, as they do not come from a connection; an example with admission control is warmed up and
+ * benchmarked on an instance which admits every request.
+ */
+public class Script {
+
+    private final SessionConfig config;
+    private final List<Function<Client, HttpRequest>> steps = new ArrayList<>();
+    private final Map<String, String> bodies = new HashMap<>();
+
+    public Script(SessionConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Adds a GET request to the script.
+     */
+    public Script get(String uri) {
+        steps.add(client -> client.prepare(HttpRequest.GET(uri)));
+        return this;
+    }
+
+    /**
+     * Adds a POST request with a text body to the script.
+     */
+    public Script post(String uri, String body) {
+        steps.add(client -> client.prepare(HttpRequest.POST(uri).withEntity(body)));
+        bodies.put(uri, body);
+        return this;
+    }
+
+    /**
+     * The body of the POST request to the uri in this script, if there is one.
+     */
+    public Optional<String> body(String uri) {
+        return Optional.ofNullable(bodies.get(uri));
+    }
+
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * Runs the script once, sending each request when the previous response arrived, and completes with the number of failed requests.
+     */
+    public CompletionStage<Integer> round(Function<HttpRequest, CompletionStage<HttpResponse>> send, Materializer materializer) {
+        Client client = newClient();
+        CompletionStage<Integer> failures = CompletableFuture.completedFuture(0);
+        for (Function<Client, HttpRequest> step : steps) {
+            failures = failures.thenCompose(failed ->
+                send.apply(step.apply(client)).handle((response, error) -> {
+                    if (error != null)
+                        return failed + 1;
+                    response.discardEntityBytes(materializer);
+                    client.receive(response);
+                    return response.status().isFailure() ? failed + 1 : failed;
+                })
+            );
+        }
+        return failures;
+    }
+
+    /**
+     * A client without tokens.
+     */
+    public Client newClient() {
+        return new Client(config);
+    }
+
+    /**
+     * The tokens a client keeps between its requests.
+     */
+    public static final class Client {
+
+        private final SessionConfig config;
+        private final Map<String, String> headers = new HashMap<>();
+        private final Map<String, String> cookies = new HashMap<>();
+
+        Client(SessionConfig config) {
+            this.config = config;
+        }
+
+        /**
+         * Adds the tokens set by the previous responses to the request.
+         */
+        public HttpRequest prepare(HttpRequest request) {
+            List<HttpHeader> sent = new ArrayList<>();
+            headers.forEach((name, value) -> sent.add(RawHeader.create(name, value)));
+            if (!cookies.isEmpty()) {
+                sent.add(Cookie.create(cookies.entrySet().stream()
+                    .map(cookie -> HttpCookiePair.create(cookie.getKey(), cookie.getValue()))
+                    .toArray(HttpCookiePair[]::new)));
+            }
+            return request.addHeaders(sent);
+        }
+
+        /**
+         * Keeps the tokens set by the response, and drops the deleted ones.
+         */
+        public void receive(HttpResponse response) {
+            for (HttpHeader header : response.getHeaders()) {
+                if (header instanceof SetCookie) {
+                    HttpCookie cookie = ((SetCookie) header).cookie();
+                    boolean deleted = "deleted".equals(cookie.value());
+                    update(cookies, cookie.name(), deleted ? null : cookie.value());
+                    if (cookie.name().equals(config.csrfCookieConfig().name()))
+                        update(headers, config.csrfSubmittedName(), deleted ? null : cookie.value());
+                } else if (header.is(config.sessionHeaderConfig().sendToClientHeaderName().toLowerCase())) {
+                    update(headers, config.sessionHeaderConfig().getFromClientHeaderName(), header.value());
+                } else if (header.is(config.refreshTokenHeaderConfig().sendToClientHeaderName().toLowerCase())) {
+                    update(headers, config.refreshTokenHeaderConfig().getFromClientHeaderName(), header.value());
+                }
+            }
+        }
+
+        private void update(Map<String, String> values, String name, String value) {
+            if (value == null || value.isEmpty())
+                values.remove(name);
+            else
+                values.put(name, value);
+        }
+    }
+}
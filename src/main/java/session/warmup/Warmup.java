@@ -0,0 +1,163 @@
+package session.warmup;
+
+import akka.NotUsed;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs synthetic requests through the route Flow of an example before it binds its port, so that the crypto, serializer and
+ * routing code is compiled by the JIT before the first real request arrives.
+ * <p>
+ * A warm-up round is the {@link Script} of requests of the example, e.g. login, current_login and logout. The rounds run in batches on as many
+ * clients as there are processors. The warm-up ends when the mean round time of {@value #STABLE_BATCHES} batches in a
+ * row stayed within {@value #TOLERANCE} of the previous one, or after -Dsession.warmup.seconds (60 by default).
+ * <p>
+ * The warm-up is opt-in, by starting the example with -Dsession.warmup=true. Its logins are real logins, so an example which keeps
+ * state beyond the client, e.g. a refresh token journal, warms up on a throwaway instance of its own.
+ */
+public class Warmup {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Warmup.class);
+
+    public static final boolean ENABLED = Boolean.getBoolean("session.warmup");
+
+    private static final int BATCH_ROUNDS = 512;
+    private static final double TOLERANCE = 0.05;
+    private static final int STABLE_BATCHES = 3;
+    private static final long MAX_SECONDS = Long.getLong("session.warmup.seconds", 60);
+    private static final long REQUEST_TIMEOUT_SECONDS = 10;
+
+    private final Flow<HttpRequest, HttpResponse, NotUsed> routes;
+    private final Materializer materializer;
+    private final Script script;
+    private final LongAdder failures = new LongAdder();
+
+    public Warmup(Flow<HttpRequest, HttpResponse, NotUsed> routes, Materializer materializer, Script script) {
+        this.routes = routes;
+        this.materializer = materializer;
+        this.script = script;
+    }
+
+    /**
+     * Runs the script through the routes until the timings settle, if the warm-up is enabled, and prints how long it took.
+     */
+    public static void warmUp(Flow<HttpRequest, HttpResponse, NotUsed> routes, Materializer materializer, Script script) {
+        if (ENABLED)
+            System.out.println(new Warmup(routes, materializer, script).run());
+    }
+
+    /**
+     * Runs rounds until the timings settle, and returns how long it took.
+     */
+    public Result run() {
+        int clients = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(clients, runnable -> {
+            Thread thread = new Thread(runnable, "warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.SECONDS.toNanos(MAX_SECONDS);
+        long rounds = 0;
+        double first = 0;
+        double last = 0;
+        int stable = 0;
+        try {
+            while (stable < STABLE_BATCHES && System.nanoTime() - deadline < 0) {
+                double micros = batch(pool, clients);
+                LOGGER.debug("Warm-up batch: {} us per round", micros);
+                if (rounds == 0)
+                    first = micros;
+                else
+                    stable = Math.abs(micros - last) <= last * TOLERANCE ? stable + 1 : 0;
+                last = micros;
+                rounds += BATCH_ROUNDS;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        return new Result(System.nanoTime() - started, rounds, first, last, stable >= STABLE_BATCHES, failures.sum());
+    }
+
+    /**
+     * Runs one batch of rounds, spread over the clients, and returns the mean round time in microseconds.
+     */
+    private double batch(ExecutorService pool, int clients) throws InterruptedException {
+        LongAdder nanos = new LongAdder();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int rounds = BATCH_ROUNDS / clients + (c < BATCH_ROUNDS % clients ? 1 : 0);
+            tasks.add(() -> {
+                for (int r = 0; r < rounds; r++) {
+                    long start = System.nanoTime();
+                    round();
+                    nanos.add(System.nanoTime() - start);
+                }
+                return null;
+            });
+        }
+        pool.invokeAll(tasks);
+        return nanos.sum() / 1000.0 / BATCH_ROUNDS;
+    }
+
+    private void round() throws InterruptedException {
+        try {
+            int failed = script.round(request ->
+                    Source.single(request)
+                        .via(routes)
+                        .runWith(Sink.head(), materializer),
+                materializer
+            ).toCompletableFuture().get(REQUEST_TIMEOUT_SECONDS * script.size(), TimeUnit.SECONDS);
+            failures.add(failed);
+        } catch (ExecutionException | TimeoutException e) {
+            failures.increment();
+        }
+    }
+
+    public static final class Result {
+
+        private final long elapsedNanos;
+        private final long rounds;
+        private final double firstRoundMicros;
+        private final double lastRoundMicros;
+        private final boolean settled;
+        private final long failures;
+
+        Result(long elapsedNanos, long rounds, double firstRoundMicros, double lastRoundMicros, boolean settled, long failures) {
+            this.elapsedNanos = elapsedNanos;
+            this.rounds = rounds;
+            this.firstRoundMicros = firstRoundMicros;
+            this.lastRoundMicros = lastRoundMicros;
+            this.settled = settled;
+            this.failures = failures;
+        }
+
+        public long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Warm-up took %,d ms: %,d rounds, %,.0f us per round in the first batch, %,.0f us in the last (%s), %d failed requests",
+                elapsedMillis(), rounds, firstRoundMicros, lastRoundMicros, settled ? "settled" : "not settled", failures);
+        }
+    }
+}